@@ -0,0 +1,17 @@
+package TextDocumentCollection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Точка входа benchmarks.jar: обычный запуск JMH, но профилировщик GC (выделение памяти на операцию
+// и время сборок) включён всегда, а результаты пишутся в JSON, чтобы сравнивать запуски между собой.
+// Остальные параметры передаются JMH как есть: java -jar benchmarks.jar Search -p size=1G -rff run.json
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(List.of("-prof", "gc", "-rf", "json"));
+        if (!Arrays.asList(args).contains("-rff")) options.addAll(List.of("-rff", "jmh-result.json"));
+        options.addAll(Arrays.asList(args));
+        org.openjdk.jmh.Main.main(options.toArray(String[]::new));
+    }
+}
@@ -0,0 +1,72 @@
+package TextDocumentCollection;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.SplittableRandom;
+
+// Синтетический корпус: слова из фиксированного словаря с заданной плотностью
+// искомого слова. Одинаковые размер, плотность и seed дают побайтно одинаковый файл,
+// поэтому результаты разных запусков сравнимы.
+final class Corpus {
+    static final String NEEDLE = "искомое";
+    static final long SEED = 521;
+
+    private static final String[] WORDS = {
+            "коллекция", "документ", "страница", "текст", "поиск", "замена", "файл", "папка",
+            "collection", "document", "page", "text", "search", "replace", "file", "folder",
+            "и", "в", "на", "с", "по", "the", "of", "and", "a", "to"
+    };
+    private static final int LINE_WORDS = 12;
+
+    private Corpus() {
+    }
+
+    // density - число вхождений NEEDLE на 1 МБ текста
+    static Path generate(Path directory, long size, int density) throws IOException {
+        Path file = directory.resolve("corpus-" + size + "-" + density + ".txt");
+        if (Files.exists(file) && Files.size(file) == size) return file;
+
+        byte[][] words = new byte[WORDS.length][];
+        for (int i = 0; i < WORDS.length; i++) words[i] = WORDS[i].getBytes(StandardCharsets.UTF_8);
+        byte[] needle = NEEDLE.getBytes(StandardCharsets.UTF_8);
+        byte[] space = {' '};
+        byte[] newline = {'\n'};
+        // вероятность того, что очередное слово (в среднем ~8 байт) - искомое
+        double needleChance = density * 8.0 / (1 << 20);
+
+        SplittableRandom random = new SplittableRandom(SEED);
+        Path tmp = Files.createTempFile(directory, "corpus", ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+            long written = 0;
+            int inLine = 0;
+            while (written < size) {
+                byte[] word = random.nextDouble() < needleChance ? needle : words[random.nextInt(words.length)];
+                byte[] separator = ++inLine == LINE_WORDS ? newline : space;
+                if (inLine == LINE_WORDS) inLine = 0;
+                if (written + word.length + 1 > size) {
+                    // остаток добиваем пробелами, чтобы не резать многобайтный символ
+                    for (; written < size; written++) out.write(' ');
+                    break;
+                }
+                out.write(word);
+                out.write(separator);
+                written += word.length + 1;
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+
+    static long parseSize(String value) {
+        String v = value.trim().toUpperCase();
+        long unit = 1;
+        if (v.endsWith("K")) unit = 1L << 10;
+        else if (v.endsWith("M")) unit = 1L << 20;
+        else if (v.endsWith("G")) unit = 1L << 30;
+        if (unit > 1) v = v.substring(0, v.length() - 1);
+        return Long.parseLong(v) * unit;
+    }
+}
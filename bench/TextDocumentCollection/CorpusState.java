@@ -0,0 +1,30 @@
+package TextDocumentCollection;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Корпус для бенчмарка: размер от 1K до 1G и плотность искомого слова (вхождений на 1 МБ).
+// Корпуса кэшируются в папке tdc.bench.dir и при тех же параметрах не пересоздаются.
+@State(Scope.Benchmark)
+public class CorpusState {
+    @Param({"1K", "1M", "64M"})
+    public String size;
+
+    @Param({"1", "100"})
+    public int density;
+
+    Path directory;
+    Path corpus;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        directory = Paths.get(System.getProperty("tdc.bench.dir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "tdc-bench").toString()));
+        Files.createDirectories(directory);
+        corpus = Corpus.generate(directory, Corpus.parseSize(size), density);
+    }
+}
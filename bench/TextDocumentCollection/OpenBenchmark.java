@@ -0,0 +1,42 @@
+package TextDocumentCollection;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Задержка открытия документа и показа первой и последней страницы
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class OpenBenchmark {
+    static final int PAGE_SIZE = 2000;
+
+    // Открытие так, как это делает редактор: буфер поверх отображения файла
+    @Benchmark
+    public long open(CorpusState state) throws IOException {
+        try (DocumentBuffer buffer = DocumentBuffer.open(state.corpus)) {
+            return buffer.size();
+        }
+    }
+
+    @Benchmark
+    public String firstPage(CorpusState state) throws IOException {
+        try (DocumentBuffer buffer = DocumentBuffer.open(state.corpus)) {
+            DocumentBuffer.Snapshot snapshot = buffer.snapshot();
+            return PageLayout.build(snapshot, PAGE_SIZE).readPage(snapshot, 0);
+        }
+    }
+
+    // Переход в конец документа - разметка всех страниц
+    @Benchmark
+    public String lastPage(CorpusState state) throws IOException {
+        try (DocumentBuffer buffer = DocumentBuffer.open(state.corpus)) {
+            DocumentBuffer.Snapshot snapshot = buffer.snapshot();
+            PageLayout layout = PageLayout.build(snapshot, PAGE_SIZE);
+            return layout.readPage(snapshot, layout.pageOf(snapshot.size()));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package TextDocumentCollection;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Задержка перелистывания уже открытого и размеченного документа: одна операция - одна
+// следующая страница, после последней просмотр начинается с начала
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class PageBenchmark {
+    private DocumentBuffer buffer;
+    private DocumentBuffer.Snapshot snapshot;
+    private PageLayout layout;
+    private int page;
+
+    @Setup(Level.Trial)
+    public void open(CorpusState state) throws IOException {
+        buffer = DocumentBuffer.open(state.corpus);
+        snapshot = buffer.snapshot();
+        layout = PageLayout.build(snapshot, OpenBenchmark.PAGE_SIZE);
+        layout.pageOf(snapshot.size());
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        buffer.close();
+    }
+
+    @Benchmark
+    public String pageTurn() {
+        page = layout.hasPage(page + 1) ? page + 1 : 0;
+        return layout.readPage(snapshot, page);
+    }
+}
@@ -0,0 +1,60 @@
+package TextDocumentCollection;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Пропускная способность замены через буфер редактора (сервер) и потоком по байтам (команда replace).
+// Слово заменяется на само себя: рабочая копия не меняется между операциями, а объём работы прежний.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class ReplaceBenchmark {
+    private static final byte[] REPLACEMENT = Corpus.NEEDLE.getBytes(StandardCharsets.UTF_8);
+
+    private final PatternSearcher searcher =
+            PatternSearcher.compile(List.of(Corpus.NEEDLE), PatternSearcher.Options.DEFAULT);
+    private final StreamingReplacer replacer = new StreamingReplacer();
+    private Path copy;
+
+    @Setup(Level.Trial)
+    public void copy(CorpusState state) throws IOException {
+        copy = state.directory.resolve("replace-" + Thread.currentThread().threadId() + "-" + state.corpus.getFileName());
+        Files.copy(state.corpus, copy, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(copy);
+    }
+
+    @Benchmark
+    public long replaceBuffer(SearchBenchmark.Processed processed) throws IOException {
+        try (DocumentBuffer buffer = DocumentBuffer.open(copy)) {
+            List<DocumentBuffer.Edit> edits = new ArrayList<>();
+            for (PatternSearcher.Match m : PatternSearcher.nonOverlapping(searcher.findAll(buffer.snapshot()))) {
+                edits.add(new DocumentBuffer.Edit(m.start(), m.end() - m.start(), REPLACEMENT));
+            }
+            buffer.apply(edits);
+            buffer.save();
+            processed.bytes += buffer.size();
+            return buffer.size();
+        }
+    }
+
+    @Benchmark
+    public long replaceBytes(SearchBenchmark.Processed processed) throws IOException {
+        processed.bytes += Files.size(copy);
+        return replacer.replaceMatches(copy, StandardCharsets.UTF_8, searcher, Corpus.NEEDLE);
+    }
+}
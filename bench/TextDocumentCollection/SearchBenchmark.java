@@ -0,0 +1,56 @@
+package TextDocumentCollection;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Пропускная способность поиска: операций в секунду и (счётчик bytes) байтов в секунду
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class SearchBenchmark {
+    private final PatternSearcher single =
+            PatternSearcher.compile(List.of(Corpus.NEEDLE), PatternSearcher.Options.DEFAULT);
+    private final PatternSearcher multiple = PatternSearcher.compile(
+            List.of(Corpus.NEEDLE.toUpperCase(), "folder", "страница"), PatternSearcher.Options.parse("iw"));
+    private MappedDocument document;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Processed {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void open(CorpusState state) throws IOException {
+        document = MappedDocument.open(state.corpus, StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        document.close();
+    }
+
+    @Benchmark
+    public List<PatternSearcher.Match> search(Processed processed) {
+        processed.bytes += document.size();
+        return single.findAll(document);
+    }
+
+    @Benchmark
+    public List<PatternSearcher.Match> searchMultiIgnoreCaseWords(Processed processed) {
+        processed.bytes += document.size();
+        return multiple.findAll(document);
+    }
+}
@@ -0,0 +1,81 @@
+package TextDocumentCollection;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+// Запись в фоновом потоке через ограниченную очередь: вызывающий поток ждёт,
+// только если очередь заполнена. flush и close дожидаются, пока очередь опустеет.
+public class AsyncOutputSink implements OutputSink {
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final Object CLOSE = new Object();
+
+    private final OutputSink delegate;
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private volatile boolean closed;
+
+    public AsyncOutputSink(OutputSink delegate) {
+        this.delegate = delegate;
+        this.writer = new Thread(this::drain, "output-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                Object item = queue.take();
+                if (item == CLOSE) {
+                    delegate.close();
+                    return;
+                } else if (item instanceof CountDownLatch latch) {
+                    delegate.flush();
+                    latch.countDown();
+                } else {
+                    delegate.println((CharSequence) item);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void put(Object item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void println(CharSequence line) {
+        if (closed) throw new IllegalStateException("Вывод уже закрыт");
+        put(line.toString());
+    }
+
+    @Override
+    public void flush() {
+        if (closed) return;
+        CountDownLatch latch = new CountDownLatch(1);
+        put(latch);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        put(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package TextDocumentCollection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Неинтерактивный режим: одна подкоманда на запуск, результат построчно или в JSON Lines в stdout.
+// Обработка документов идёт параллельно на пуле из --workers потоков в рамках одного запуска JVM.
+public class BatchCommandLine {
+    private static final Set<String> FLAGS = Set.of("--json", "--dry-run", "--desc");
+    private static final int CONTEXT_BYTES = 40;
+
+    private final PrintStream out;
+    private final PrintStream err;
+    private final Map<String, List<String>> options = new HashMap<>();
+    private final List<String> arguments = new ArrayList<>();
+    private Path root;
+    private boolean json;
+
+    public BatchCommandLine(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void printUsage(PrintStream stream) {
+        stream.println("Использование: <команда> [параметры]");
+        stream.println("Команды:");
+        stream.println("  list                               список документов");
+        stream.println("  sort --by name|size|created|modified|author[,...] [--desc]");
+        stream.println("  props [документ...]                свойства документов (по умолчанию - всех)");
+        stream.println("  search <образец>... [--flags iwr]  поиск во всех документах");
+        stream.println("  replace --find <текст> --replace <текст> [--dry-run]");
+        stream.println("  stats [--top N]                    сводная статистика коллекции");
+        stream.println("  serve [--port N] [--host адрес]    многопользовательский HTTP-сервер");
+        stream.println("  compress [--block KB] [--dry-run]  сжать документы .txt в формат .txtz");
+        stream.println("  decompress [--dry-run]             распаковать документы .txtz обратно в .txt");
+        stream.println("  import <файл.jsonl|архив.zip|-> [--batch N]");
+        stream.println("                                     массовый импорт документов, N - размер группы сброса на диск");
+        stream.println("  duplicates [--threshold X]         группы почти одинаковых документов, X - порог сходства от 0 до 1");
+        stream.println("Общие параметры:");
+        stream.println("  --root <папка>     корневая папка коллекции (по умолчанию - текущая)");
+        stream.println("  --depth <N>        глубина сканирования");
+        stream.println("  --glob <маска>     маска файлов, можно повторять (по умолчанию *.txt и *.txtz)");
+        stream.println("  --workers <N>      число потоков обработки");
+        stream.println("  --json             вывод в формате JSON Lines");
+    }
+
+    // Код возврата: 0 - успех, 1 - ничего не найдено или ошибка обработки, 2 - неверные аргументы
+    public int run(String[] args) {
+        if (args.length == 0 || args[0].equals("help") || args[0].equals("--help")) {
+            printUsage(out);
+            return 0;
+        }
+        String command = args[0];
+        try {
+            parse(args);
+            root = Paths.get(option("--root", System.getProperty("user.dir"))).toAbsolutePath().normalize();
+            if (!Files.isDirectory(root)) {
+                throw new IllegalArgumentException("Указанный путь не существует или не является папкой: " + root);
+            }
+            json = options.containsKey("--json");
+
+            return switch (command) {
+                case "list" -> list();
+                case "sort" -> sort();
+                case "props" -> props();
+                case "search" -> search();
+                case "replace" -> replace();
+                case "stats" -> stats();
+                case "serve" -> serve();
+                case "compress" -> convert(true);
+                case "decompress" -> convert(false);
+                case "import" -> importDocuments();
+                case "duplicates" -> duplicates();
+                default -> {
+                    err.println("Неизвестная команда: " + command);
+                    printUsage(err);
+                    yield 2;
+                }
+            };
+        } catch (IllegalArgumentException e) {
+            err.println("Ошибка: " + e.getMessage());
+            return 2;
+        } catch (Exception e) {
+            err.println("Ошибка: " + e.getMessage());
+            return 1;
+        } finally {
+            out.flush();
+        }
+    }
+
+    private void parse(String[] args) {
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                arguments.add(arg);
+            } else if (FLAGS.contains(arg)) {
+                options.computeIfAbsent(arg, k -> new ArrayList<>());
+            } else if (i + 1 < args.length) {
+                options.computeIfAbsent(arg, k -> new ArrayList<>()).add(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Не указано значение параметра " + arg);
+            }
+        }
+    }
+
+    private String option(String name, String defaultValue) {
+        List<String> values = options.get(name);
+        return values == null || values.isEmpty() ? defaultValue : values.get(values.size() - 1);
+    }
+
+    private String requiredOption(String name) {
+        String value = option(name, null);
+        if (value == null) throw new IllegalArgumentException("Не указан параметр " + name);
+        return value;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        String value = option(name, null);
+        if (value == null) return defaultValue;
+        try {
+            int result = Integer.parseInt(value);
+            if (result <= 0) throw new NumberFormatException();
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Параметр " + name + " должен быть положительным числом");
+        }
+    }
+
+    private double doubleOption(String name, double defaultValue) {
+        String value = option(name, null);
+        if (value == null) return defaultValue;
+        try {
+            double result = Double.parseDouble(value);
+            if (!(result > 0 && result <= 1)) throw new NumberFormatException();
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Параметр " + name + " должен быть числом от 0 до 1");
+        }
+    }
+
+    private DocumentScanner scanner() {
+        List<String> globs = options.getOrDefault("--glob", DocumentScanner.DEFAULT_PATTERNS);
+        return new DocumentScanner(intOption("--depth", DocumentScanner.UNLIMITED_DEPTH), globs);
+    }
+
+    private List<DocumentMetadata> scan() {
+        List<DocumentMetadata> documents = new ArrayList<>(scanner().scan(root).documents());
+        documents.sort(Comparator.comparing(DocumentMetadata::path));
+        return documents;
+    }
+
+    private int list() {
+        scan().forEach(this::printMetadata);
+        return 0;
+    }
+
+    private int sort() {
+        // Несколько критериев через запятую: author,modified - по автору, затем по дате
+        Comparator<DocumentMetadata> comparator = null;
+        for (String by : option("--by", "name").split(",")) {
+            Comparator<DocumentMetadata> key = switch (by.trim()) {
+                case "name" -> Comparator.comparing(m -> m.path().getFileName());
+                case "size" -> Comparator.comparingLong(DocumentMetadata::size);
+                case "created" -> Comparator.comparingLong(DocumentMetadata::created);
+                case "modified" -> Comparator.comparingLong(DocumentMetadata::modified);
+                case "author" -> DocumentManager.BY_AUTHOR;
+                default -> throw new IllegalArgumentException("Неизвестный критерий сортировки: " + by);
+            };
+            comparator = comparator == null ? key : comparator.thenComparing(key);
+        }
+        if (options.containsKey("--desc")) comparator = comparator.reversed();
+
+        DocumentMetadata[] documents = scan().toArray(new DocumentMetadata[0]);
+        Arrays.parallelSort(documents, comparator);
+        for (DocumentMetadata m : documents) printMetadata(m);
+        return 0;
+    }
+
+    private int props() throws IOException {
+        if (arguments.isEmpty()) return list();
+        int status = 0;
+        for (String name : arguments) {
+            Path path = root.resolve(name).normalize();
+            if (!Files.isRegularFile(path)) {
+                err.println("Документ не найден: " + name);
+                status = 1;
+                continue;
+            }
+            printMetadata(DocumentMetadata.read(path));
+        }
+        return status;
+    }
+
+    private void printMetadata(DocumentMetadata m) {
+        String path = root.relativize(m.path()).toString();
+        String created = Instant.ofEpochMilli(m.created()).toString();
+        String modified = Instant.ofEpochMilli(m.modified()).toString();
+        if (json) {
+            out.println(Json.object("path", path, "size", m.size(), "created", created, "modified", modified,
+                    "author", m.author()));
+        } else {
+            out.println(path + "\t" + m.size() + "\t" + created + "\t" + modified + "\t" +
+                    (m.author() != null ? m.author() : "-"));
+        }
+    }
+
+    private int search() throws InterruptedException {
+        if (arguments.isEmpty()) throw new IllegalArgumentException("Не указаны образцы для поиска");
+        PatternSearcher searcher = PatternSearcher.compile(arguments,
+                PatternSearcher.Options.parse(option("--flags", "")));
+        AtomicLong found = new AtomicLong();
+
+        int failed = forEachDocument(scan(), m -> {
+            List<String> lines = new ArrayList<>();
+            try (DocumentFile document = DocumentFile.open(m.path(), m.charset())) {
+                for (PatternSearcher.Match match : searcher.findAll(document)) {
+                    lines.add(formatMatch(m.path(), document, match, searcher));
+                }
+            }
+            found.addAndGet(lines.size());
+            printBlock(lines);
+        });
+        return failed == 0 && found.get() > 0 ? 0 : 1;
+    }
+
+    private String formatMatch(Path path, ByteSource document, PatternSearcher.Match match, PatternSearcher searcher) {
+        long contextStart = document.alignToChar(Math.max(0, match.start() - CONTEXT_BYTES));
+        long contextEnd = document.alignToChar(Math.min(document.size(), match.end() + CONTEXT_BYTES));
+        String context = document.decode(contextStart, contextEnd).replace('\n', ' ').replace('\r', ' ')
+                .replace('\t', ' ');
+        String relative = root.relativize(path).toString();
+        String pattern = searcher.getPatterns().get(match.pattern());
+        if (json) {
+            return Json.object("path", relative, "start", match.start(), "end", match.end(),
+                    "pattern", pattern, "text", document.decode(match.start(), match.end()), "context", context);
+        }
+        return relative + "\t" + match.start() + "\t" + match.end() + "\t" + pattern + "\t" + context;
+    }
+
+    private int replace() throws InterruptedException {
+        String find = requiredOption("--find");
+        String replaceWith = requiredOption("--replace");
+        boolean dryRun = options.containsKey("--dry-run");
+        StreamingReplacer replacer = new StreamingReplacer();
+        PatternSearcher searcher = PatternSearcher.compile(List.of(find), PatternSearcher.Options.DEFAULT);
+        AtomicLong replaced = new AtomicLong();
+        AtomicLong changedDocuments = new AtomicLong();
+        long started = System.nanoTime();
+
+        int failed = forEachDocument(scan(), m -> {
+            long count;
+            if (dryRun) {
+                try (DocumentFile document = DocumentFile.open(m.path(), m.charset())) {
+                    count = PatternSearcher.nonOverlapping(searcher.findAll(document)).size();
+                }
+            } else {
+                count = replacer.replaceMatches(m.path(), m.charset(), searcher, replaceWith);
+            }
+            if (count == 0) return;
+            replaced.addAndGet(count);
+            changedDocuments.incrementAndGet();
+            String relative = root.relativize(m.path()).toString();
+            printBlock(List.of(json ? Json.object("path", relative, "replaced", count) : relative + "\t" + count));
+        });
+
+        long millis = (System.nanoTime() - started) / 1_000_000;
+        err.println((dryRun ? "Найдено" : "Заменено") + " вхождений: " + replaced.get() +
+                " в документах: " + changedDocuments.get() + " за " + millis + " мс" +
+                (failed > 0 ? ", ошибок: " + failed : ""));
+        return failed == 0 && replaced.get() > 0 ? 0 : 1;
+    }
+
+    private int stats() {
+        CollectionStatistics.Summary s = CollectionStatistics.compute(scan()).summary(intOption("--top", 10));
+        if (json) {
+            out.println(Json.object("type", "total", "documents", s.documents(), "bytes", s.bytes(),
+                    "lines", s.lines(), "words", s.words(), "uniqueTerms", s.uniqueTerms()));
+            s.topTerms().forEach(c -> out.println(Json.object("type", "term", "term", c.key(), "count", c.count())));
+            s.authors().forEach(c -> out.println(Json.object("type", "author",
+                    "author", c.key().isEmpty() ? null : c.key(), "documents", c.count())));
+            s.months().forEach(c -> out.println(Json.object("type", "month", "month", c.key(), "documents", c.count())));
+        } else {
+            out.println("documents\t" + s.documents());
+            out.println("bytes\t" + s.bytes());
+            out.println("lines\t" + s.lines());
+            out.println("words\t" + s.words());
+            out.println("unique-terms\t" + s.uniqueTerms());
+            s.topTerms().forEach(c -> out.println("term\t" + c.key() + "\t" + c.count()));
+            s.authors().forEach(c -> out.println("author\t" + (c.key().isEmpty() ? "-" : c.key()) + "\t" + c.count()));
+            s.months().forEach(c -> out.println("month\t" + c.key() + "\t" + c.count()));
+        }
+        return 0;
+    }
+
+    // Подписи документов сохраняются в корне коллекции, повторный запуск пересчитывает только изменённые
+    private int duplicates() throws IOException {
+        double threshold = doubleOption("--threshold", DuplicateDetector.DEFAULT_THRESHOLD);
+        long started = System.nanoTime();
+        DuplicateDetector detector = DuplicateDetector.open(root, scan(), err);
+        List<DuplicateDetector.Cluster> clusters = detector.clusters(threshold);
+        for (DuplicateDetector.Cluster cluster : clusters) {
+            List<String> paths = cluster.documents().stream().map(p -> root.relativize(p).toString()).toList();
+            if (json) {
+                out.println(Json.object("documents", Json.array(paths.stream().map(Json::quote).toList()),
+                        "similarity", cluster.similarity()));
+            } else {
+                out.println(String.format(Locale.ROOT, "%.2f\t", cluster.similarity()) + String.join("\t", paths));
+            }
+        }
+        long millis = (System.nanoTime() - started) / 1_000_000;
+        err.println("Документов: " + detector.documentCount() + ", групп почти одинаковых: " + clusters.size() +
+                " за " + millis + " мс");
+        return clusters.isEmpty() ? 1 : 0;
+    }
+
+    // Перевод документов в сжатый формат и обратно. Новый файл получает время изменения исходного,
+    // исходный удаляется только после того, как новый записан на диск. Новый файл появляется
+    // жёсткой ссылкой на временный: файл, созданный под тем же именем за это время, не перезаписывается.
+    private int convert(boolean compress) throws InterruptedException {
+        int blockSize = intOption("--block", CompressedDocument.DEFAULT_BLOCK_SIZE >> 10) << 10;
+        boolean dryRun = options.containsKey("--dry-run");
+        List<DocumentMetadata> documents = scan().stream()
+                .filter(m -> CompressedDocument.isCompressed(m.path()) != compress)
+                .toList();
+        AtomicLong converted = new AtomicLong();
+        AtomicLong bytesBefore = new AtomicLong();
+        AtomicLong bytesAfter = new AtomicLong();
+        long started = System.nanoTime();
+
+        int failed = forEachDocument(documents, m -> {
+            Path source = m.path();
+            Path target = convertedPath(source, compress);
+            if (Files.exists(target)) {
+                err.println("Пропущен " + root.relativize(source) + ": уже существует " + target.getFileName());
+                return;
+            }
+            long after = 0;
+            if (!dryRun) {
+                Path tmp = Files.createTempFile(target.toAbsolutePath().getParent(), "." + target.getFileName(), ".tmp");
+                try {
+                    try (DocumentFile document = DocumentFile.open(source, m.charset())) {
+                        if (compress) {
+                            CompressedDocument.write(document, tmp, blockSize);
+                        } else {
+                            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                                document.newInputStream().transferTo(Channels.newOutputStream(out));
+                                out.force(true);
+                            }
+                        }
+                    }
+                    Files.setLastModifiedTime(tmp, Files.getLastModifiedTime(source));
+                    try {
+                        Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(source));
+                    } catch (UnsupportedOperationException e) {
+                        // права доступа остаются по умолчанию
+                    }
+                    after = Files.size(tmp);
+                    Files.createLink(target, tmp);
+                } catch (FileAlreadyExistsException e) {
+                    err.println("Пропущен " + root.relativize(source) + ": уже существует " + target.getFileName());
+                    return;
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+                syncDirectory(target.toAbsolutePath().getParent());
+                Files.delete(source);
+            }
+            converted.incrementAndGet();
+            bytesBefore.addAndGet(m.size());
+            bytesAfter.addAndGet(after);
+            String relative = root.relativize(source).toString();
+            printBlock(List.of(json
+                    ? Json.object("path", relative, "target", target.getFileName().toString(), "before", m.size(), "after", after)
+                    : relative + "\t" + target.getFileName() + "\t" + m.size() + "\t" + after));
+        });
+
+        long millis = (System.nanoTime() - started) / 1_000_000;
+        err.println((dryRun ? "Будет обработано" : "Обработано") + " документов: " + converted.get() +
+                (dryRun ? "" : ", байт: " + bytesBefore.get() + " -> " + bytesAfter.get()) + " за " + millis + " мс" +
+                (failed > 0 ? ", ошибок: " + failed : ""));
+        return failed > 0 ? 1 : 0;
+    }
+
+    // Запись о новом файле тоже должна попасть на диск раньше, чем исчезнет исходный
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Не все системы позволяют открыть папку как файл; тогда остаётся положиться на саму систему
+        }
+    }
+
+    private static Path convertedPath(Path source, boolean compress) {
+        String name = source.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return source.resolveSibling(base + (compress ? CompressedDocument.EXTENSION : ".txt"));
+    }
+
+    // Импорт из JSON Lines ("-" - стандартный ввод) или zip-архива. Если у коллекции уже есть индекс,
+    // новые документы добавляются в него группами по мере сброса на диск, а не переиндексацией в конце.
+    private int importDocuments() throws IOException, InterruptedException {
+        if (arguments.size() != 1) {
+            throw new IllegalArgumentException("Укажите один файл для импорта: JSON Lines, zip-архив или - для стандартного ввода");
+        }
+        String input = arguments.get(0);
+        DocumentScanner scanner = scanner();
+        SearchIndex index = Files.exists(root.resolve(SearchIndex.INDEX_FILE)) ? SearchIndex.open(root, scan()) : null;
+        BulkImporter importer = new BulkImporter(root, intOption("--workers", Runtime.getRuntime().availableProcessors()),
+                intOption("--batch", BulkImporter.DEFAULT_GROUP_SIZE), group -> {
+            if (index == null) return;
+            List<DocumentMetadata> added = new ArrayList<>(group.size());
+            for (Path path : group) {
+                if (!scanner.matches(root, path) || !scanner.withinDepth(root, path)) continue;
+                try {
+                    added.add(DocumentMetadata.read(path));
+                } catch (IOException e) {
+                    err.println("Документ не добавлен в индекс " + root.relativize(path) + ": " + e.getMessage());
+                }
+            }
+            index.applyChanges(added, Set.of());
+        }, err);
+
+        BulkImporter.Result result;
+        if (input.equals("-")) {
+            result = importer.importJsonLines(System.in);
+        } else {
+            Path file = Paths.get(input);
+            try (InputStream in = Files.newInputStream(file)) {
+                result = file.getFileName().toString().toLowerCase().endsWith(".zip")
+                        ? importer.importZip(in)
+                        : importer.importJsonLines(in);
+            }
+        }
+        if (index != null) index.saveIfDirty();
+
+        if (json) {
+            out.println(Json.object("imported", result.imported(), "bytes", result.bytes(), "skipped", result.skipped(),
+                    "failed", result.failed(), "seconds", result.seconds(),
+                    "documentsPerSecond", result.documentsPerSecond(), "megabytesPerSecond", result.megabytesPerSecond()));
+        }
+        err.println(String.format(Locale.ROOT, "Импортировано документов: %d (%.1f МБ) за %.1f с: %.0f док/с, %.1f МБ/с; " +
+                        "пропущено существующих: %d, ошибок: %d", result.imported(), result.bytes() / (double) (1 << 20),
+                result.seconds(), result.documentsPerSecond(), result.megabytesPerSecond(), result.skipped(), result.failed()));
+        return result.failed() > 0 ? 1 : 0;
+    }
+
+    // Работает до завершения процесса; наблюдение за папкой обновляет коллекцию на лету
+    private int serve() throws IOException, InterruptedException {
+        DocumentManager manager = new DocumentManager(root, scanner());
+        Metrics.registerMBeans();
+        InetSocketAddress address = new InetSocketAddress(option("--host", "localhost"),
+                intOption("--port", CollectionServer.DEFAULT_PORT));
+        CollectionServer server = CollectionServer.start(manager, address);
+        err.println("Сервер запущен: http://" + option("--host", "localhost") + ":" + server.getPort() +
+                "/ (документов: " + manager.getDocuments().size() + ")");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                manager.close();
+            } catch (IOException e) {
+                System.err.println("Ошибка при закрытии коллекции: " + e.getMessage());
+            }
+        }));
+        new CountDownLatch(1).await();
+        return 0;
+    }
+
+    private interface DocumentTask {
+        void run(DocumentMetadata document) throws IOException;
+    }
+
+    // Возвращает число документов, обработка которых завершилась ошибкой
+    private int forEachDocument(List<DocumentMetadata> documents, DocumentTask task) throws InterruptedException {
+        int workers = intOption("--workers", Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        AtomicInteger failed = new AtomicInteger();
+        try {
+            for (DocumentMetadata document : documents) {
+                pool.execute(() -> {
+                    try {
+                        task.run(document);
+                    } catch (IOException | RuntimeException e) {
+                        failed.incrementAndGet();
+                        err.println("Ошибка обработки " + root.relativize(document.path()) + ": " + e.getMessage());
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        return failed.get();
+    }
+
+    // Строки одного документа выводятся подряд, не перемешиваясь с выводом других потоков
+    private void printBlock(List<String> lines) {
+        if (lines.isEmpty()) return;
+        synchronized (out) {
+            lines.forEach(out::println);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package TextDocumentCollection;
+
+import java.io.IOException;
+import java.io.Writer;
+
+public class BufferedOutputSink implements OutputSink {
+    private final Writer writer;
+    private final boolean closeWriter;
+    private final String lineSeparator = System.lineSeparator();
+
+    public BufferedOutputSink(Writer writer, boolean closeWriter) {
+        this.writer = writer;
+        this.closeWriter = closeWriter;
+    }
+
+    @Override
+    public synchronized void println(CharSequence line) {
+        try {
+            writer.append(line).write(lineSeparator);
+        } catch (IOException e) {
+            System.err.println("Ошибка записи: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void println(CharSequence text, int start, int end) {
+        try {
+            if (text instanceof String string) {
+                writer.write(string, start, end - start);
+            } else {
+                writer.append(text, start, end);
+            }
+            writer.write(lineSeparator);
+        } catch (IOException e) {
+            System.err.println("Ошибка записи: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            System.err.println("Ошибка записи: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (closeWriter) {
+                writer.close();
+            } else {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка записи: " + e.getMessage());
+        }
+    }
+}
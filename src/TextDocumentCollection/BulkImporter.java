@@ -0,0 +1,300 @@
+package TextDocumentCollection;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+// Массовый импорт документов из потока JSON Lines или zip-архива.
+// Вход разбирается в вызывающем потоке, документы идут через ограниченную очередь к нескольким
+// писателям. Писатель создаёт файлы без сброса на диск и копит их в группу; набранная группа
+// сбрасывается (fsync файлов, затем по разу - их папок) и только после этого целиком передаётся
+// на регистрацию в коллекции. Так и сброс на диск, и обновление индексов идут пачками,
+// а в коллекцию не попадает документ, который ещё не записан на диск.
+// Существующие документы не перезаписываются. Импорт, прерванный сбоем, может оставить
+// созданные, но не сброшенные файлы последней группы.
+public class BulkImporter {
+    public static final int DEFAULT_GROUP_SIZE = 256;
+    private static final long GROUP_BYTES = 64L << 20;
+    private static final int QUEUE_PER_WRITER = 64;
+    private static final int READ_BUFFER = 1 << 16;
+    private static final int MAX_CONTENT = Integer.MAX_VALUE - 8;
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final Metrics.Counter DOCUMENTS_IMPORTED =
+            Metrics.counter("documents_imported", "Импортировано документов");
+    private static final Metrics.Timer GROUP_SYNC_TIME =
+            Metrics.timer("import_group_sync", "Сброс на диск группы импортированных документов");
+
+    // Документ из входа: путь относительно корня коллекции и содержимое.
+    // text - содержимое является текстом и записывается в формате файла (в .txtz - сжатым),
+    // иначе это готовые байты файла (запись архива) и они записываются как есть
+    public record Document(String name, byte[] content, boolean text) {
+    }
+
+    // bytes - записано байтов, включая документы, которые не удалось сбросить на диск
+    public record Result(long imported, long bytes, long skipped, long failed, long nanos) {
+        public double seconds() {
+            return nanos / 1e9;
+        }
+
+        public double documentsPerSecond() {
+            return nanos == 0 ? 0 : imported / seconds();
+        }
+
+        public double megabytesPerSecond() {
+            return nanos == 0 ? 0 : bytes / seconds() / (1 << 20);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Parser {
+        void parse() throws IOException, InterruptedException;
+    }
+
+    // Признак конца входа, по одному на писателя
+    private static final Document END = new Document("", new byte[0], false);
+
+    private final Path root;
+    private final int writers;
+    private final int groupSize;
+    private final Consumer<List<Path>> registrar;
+    private final PrintStream log;
+    private final BlockingQueue<Document> queue;
+    private final LongAdder imported = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private long started;
+    private long lastProgress;
+
+    // registrar получает каждую сброшенную на диск группу; вызывается из потоков-писателей
+    public BulkImporter(Path root, int writers, int groupSize, Consumer<List<Path>> registrar, PrintStream log) {
+        if (writers < 1 || groupSize < 1) {
+            throw new IllegalArgumentException("Число писателей и размер группы должны быть положительными");
+        }
+        this.root = root.toAbsolutePath().normalize();
+        this.writers = writers;
+        this.groupSize = groupSize;
+        this.registrar = registrar;
+        this.log = log;
+        this.queue = new ArrayBlockingQueue<>(writers * QUEUE_PER_WRITER);
+    }
+
+    // Строка - объект {"path": "папка/имя.txt", "text": "..."}; текст записывается в UTF-8
+    // (в документ .txtz - сжатым), к имени без расширения .txt / .txtz добавляется .txt.
+    // Пустые строки пропускаются.
+    public Result importJsonLines(InputStream in) throws IOException, InterruptedException {
+        return run(() -> {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), READ_BUFFER);
+            String line;
+            long number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.isBlank()) continue;
+                try {
+                    if (!(Json.parse(line) instanceof Map<?, ?> object)) {
+                        throw new IllegalArgumentException("ожидается объект");
+                    }
+                    if (!(object.get("path") instanceof String name) || !(object.get("text") instanceof String text)) {
+                        throw new IllegalArgumentException("нужны строковые поля path и text");
+                    }
+                    submit(new Document(name, text.getBytes(StandardCharsets.UTF_8), true));
+                } catch (IllegalArgumentException e) {
+                    fail("документ из строки " + number, e.getMessage());
+                }
+            }
+        });
+    }
+
+    // Из архива берутся только файлы .txt и .txtz, остальные записи пропускаются
+    public Result importZip(InputStream in) throws IOException, InterruptedException {
+        return run(() -> {
+            ZipInputStream zip = new ZipInputStream(in);
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                String lower = name.toLowerCase();
+                if (entry.isDirectory() || !(lower.endsWith(".txt") || lower.endsWith(CompressedDocument.EXTENSION))) {
+                    continue;
+                }
+                long size = entry.getSize();
+                if (size > MAX_CONTENT) {
+                    fail(name, "слишком большой файл");
+                    continue;
+                }
+                // Размер из заголовка записи известен заранее - буфер выделяется сразу нужной длины;
+                // без него читается не больше того же предела, а остаток записи пропускается
+                byte[] content = zip.readNBytes(size >= 0 ? (int) size : MAX_CONTENT);
+                if (size < 0 && zip.read() >= 0) {
+                    fail(name, "слишком большой файл");
+                    continue;
+                }
+                submit(new Document(name, content, false));
+            }
+        });
+    }
+
+    private Result run(Parser parser) throws IOException, InterruptedException {
+        started = System.nanoTime();
+        lastProgress = started;
+        ExecutorService pool = Executors.newFixedThreadPool(writers, r -> {
+            Thread thread = new Thread(r, "import-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < writers; i++) pool.execute(this::write);
+        try {
+            parser.parse();
+        } finally {
+            // Уже созданные документы сбрасываются и регистрируются, даже если разбор входа прервался
+            for (int i = 0; i < writers; i++) queue.put(END);
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        return result();
+    }
+
+    private Result result() {
+        return new Result(imported.sum(), bytes.sum(), skipped.sum(), failed.sum(), System.nanoTime() - started);
+    }
+
+    private void submit(Document document) throws InterruptedException {
+        queue.put(document);
+        long now = System.nanoTime();
+        if (now - lastProgress >= PROGRESS_INTERVAL) {
+            lastProgress = now;
+            Result r = result();
+            log.printf(Locale.ROOT, "Импортировано %d документов (%.0f док/с, %.1f МБ/с)%n",
+                    r.imported(), r.documentsPerSecond(), r.megabytesPerSecond());
+        }
+    }
+
+    private void fail(String source, String message) {
+        failed.increment();
+        log.println("Не импортирован " + source + ": " + message);
+    }
+
+    private void write() {
+        List<Path> group = new ArrayList<>(groupSize);
+        long groupBytes = 0;
+        try {
+            Document document;
+            while ((document = queue.take()) != END) {
+                Path target = create(document);
+                if (target == null) continue;
+                group.add(target);
+                bytes.add(document.content().length);
+                groupBytes += document.content().length;
+                if (group.size() >= groupSize || groupBytes >= GROUP_BYTES) {
+                    commit(group);
+                    group = new ArrayList<>(groupSize);
+                    groupBytes = 0;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            commit(group);
+        }
+    }
+
+    private Path create(Document document) {
+        Path target;
+        try {
+            target = resolve(document.name());
+        } catch (IllegalArgumentException e) {
+            fail(document.name(), e.getMessage());
+            return null;
+        }
+        try {
+            Files.createDirectories(target.getParent());
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                if (!document.text() || !CompressedDocument.isCompressed(target)) {
+                    ByteBuffer content = ByteBuffer.wrap(document.content());
+                    while (content.hasRemaining()) channel.write(content);
+                    return target;
+                }
+            }
+            // Файл уже создан (занят этим документом) и перезаписывается в сжатом формате
+            try (OutputStream out = CompressedDocument.newOutputStream(target, CompressedDocument.DEFAULT_BLOCK_SIZE)) {
+                out.write(document.content());
+            }
+            return target;
+        } catch (FileAlreadyExistsException e) {
+            skipped.increment();
+            return null;
+        } catch (IOException e) {
+            fail(document.name(), e.getMessage());
+            return null;
+        }
+    }
+
+    // Путь из входа не должен выходить за корень коллекции
+    private Path resolve(String name) {
+        Path relative = root.getFileSystem().getPath(name.replace('\\', '/')).normalize();
+        if (name.isBlank() || relative.isAbsolute() || relative.startsWith("..") || relative.getFileName() == null) {
+            throw new IllegalArgumentException("недопустимый путь документа");
+        }
+        String fileName = relative.getFileName().toString();
+        String lower = fileName.toLowerCase();
+        if (!lower.endsWith(".txt") && !lower.endsWith(CompressedDocument.EXTENSION)) {
+            relative = relative.resolveSibling(fileName + ".txt");
+        }
+        Path target = root.resolve(relative).normalize();
+        if (!target.startsWith(root) || target.equals(root)) {
+            throw new IllegalArgumentException("недопустимый путь документа");
+        }
+        return target;
+    }
+
+    // Файлы группы сбрасываются подряд, папки - по одному разу на группу
+    private void commit(List<Path> group) {
+        if (group.isEmpty()) return;
+        long syncStarted = System.nanoTime();
+        List<Path> durable = new ArrayList<>(group.size());
+        Set<Path> directories = new HashSet<>();
+        for (Path path : group) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.force(false);
+                durable.add(path);
+                directories.add(path.getParent());
+            } catch (IOException e) {
+                fail(root.relativize(path).toString(), e.getMessage());
+            }
+        }
+        for (Path directory : directories) syncDirectory(directory);
+        GROUP_SYNC_TIME.recordSince(syncStarted);
+
+        imported.add(durable.size());
+        DOCUMENTS_IMPORTED.add(durable.size());
+        try {
+            registrar.accept(durable);
+        } catch (RuntimeException e) {
+            log.println("Ошибка регистрации импортированных документов: " + e.getMessage());
+        }
+    }
+
+    // Запись о новом файле в папке тоже должна попасть на диск
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Не все системы позволяют открыть папку как файл; тогда остаётся положиться на саму систему
+        }
+    }
+}
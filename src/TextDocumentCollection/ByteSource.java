@@ -0,0 +1,60 @@
+package TextDocumentCollection;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+// Содержимое документа как последовательность байтов с произвольным доступом.
+// Байты - текст в кодировке charset(): UTF-8 или однобайтовой (см. TextEncoding).
+public interface ByteSource {
+
+    long size();
+
+    void get(long pos, byte[] dst, int off, int len);
+
+    default byte get(long pos) {
+        byte[] one = new byte[1];
+        get(pos, one, 0, 1);
+        return one[0];
+    }
+
+    default Charset charset() {
+        return StandardCharsets.UTF_8;
+    }
+
+    default String decode(long from, long to) {
+        byte[] bytes = new byte[(int) (to - from)];
+        get(from, bytes, 0, bytes.length);
+        return new String(bytes, charset());
+    }
+
+    // Смещение начала символа, в который попадает pos; в однобайтовой кодировке - сам pos
+    default long alignToChar(long pos) {
+        if (!charset().equals(StandardCharsets.UTF_8)) return pos;
+        while (pos > 0 && pos < size() && (get(pos) & 0xC0) == 0x80) pos--;
+        return pos;
+    }
+
+    // Последовательное чтение содержимого с начала
+    default InputStream newInputStream() {
+        return new InputStream() {
+            private long position;
+
+            @Override
+            public int read() {
+                return position < size() ? get(position++) & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                long remaining = size() - position;
+                if (len == 0) return 0;
+                if (remaining <= 0) return -1;
+                int n = (int) Math.min(len, remaining);
+                get(position, b, off, n);
+                position += n;
+                return n;
+            }
+        };
+    }
+}
@@ -0,0 +1,485 @@
+package TextDocumentCollection;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Многопользовательский режим: HTTP-сервер, каждый запрос - в своём виртуальном потоке.
+// Состояние пользователя (открытый документ, результаты поиска) хранится в сессии, а не в
+// DocumentManager. Сессии одного документа читают общий неизменяемый снимок буфера, общую
+// разметку страниц и общий кэш, поэтому число читателей почти не влияет на память.
+// Замена сразу сохраняется на диск, после чего сессия видит новый снимок. Замена принимается,
+// только если документ не менялся с тех пор, как сессия его открыла (версии DocumentStore).
+public class CollectionServer {
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_PAGE_SIZE = 2000;
+    private static final long SESSION_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+    private static final int MAX_HITS = 100;
+    private static final int CONTEXT_BYTES = 40;
+    private static final Metrics.Timer REQUEST_TIME = Metrics.timer("server_request", "Обработка запроса сервера");
+    private static final Metrics.Counter REQUEST_ERRORS = Metrics.counter("server_errors", "Запросы сервера с ошибкой");
+
+    // Состояние одного пользователя; поля меняются только под блокировкой сессии
+    private static final class Session {
+        final String id = UUID.randomUUID().toString();
+        volatile long lastAccess = System.currentTimeMillis();
+        boolean closed;
+        Path document;
+        DocumentMetadata version;
+        long stamp = DocumentStore.NO_VERSION;
+        DocumentBuffer.Snapshot snapshot;
+        PageLayout layout;
+        int page;
+        List<PatternSearcher.Match> searchResults = List.of();
+        int currentSearchIndex;
+        // Не монитор: под блокировкой сессии ждут разметку и пишут документ,
+        // а виртуальный поток обработчика не должен занимать поток-носитель
+        final ReentrantLock lock = new ReentrantLock();
+    }
+
+    // Общий буфер документа и число сессий, в которых документ открыт; меняются только в buffers.compute.
+    // published - последний снимок буфера вместе с номером версии, по которому его читают сессии
+    private static final class SharedBuffer {
+        volatile DocumentBuffer buffer;
+        volatile DocumentStore.Versioned<DocumentBuffer.Saved> published;
+        int sessions;
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        String handle(Map<String, String> params, HttpExchange exchange) throws IOException;
+    }
+
+    private final DocumentManager manager;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<Path, SharedBuffer> buffers = new ConcurrentHashMap<>();
+
+    private CollectionServer(DocumentManager manager, HttpServer server) {
+        this.manager = manager;
+        this.server = server;
+    }
+
+    public static CollectionServer start(DocumentManager manager, InetSocketAddress address) throws IOException {
+        CollectionServer collectionServer = new CollectionServer(manager, HttpServer.create(address, 0));
+        collectionServer.registerContexts();
+        collectionServer.server.setExecutor(collectionServer.executor);
+        collectionServer.server.start();
+        Metrics.gauge("sessions", "Открытые сессии сервера", () -> collectionServer.sessions.size());
+        Metrics.gauge("server_buffers", "Буферы документов, открытых в сессиях сервера", collectionServer::openBuffers);
+        return collectionServer;
+    }
+
+    private void registerContexts() {
+        route("/session", "POST", (params, exchange) -> createSession());
+        route("/documents", "GET", (params, exchange) -> documents());
+        route("/open", "POST", this::open);
+        route("/page", "GET", this::page);
+        route("/search", "GET", this::search);
+        route("/hit", "GET", this::hit);
+        route("/replace", "POST", this::replace);
+        route("/close", "POST", (params, exchange) -> closeSession(params, exchange));
+        server.createContext("/metrics", MetricsEndpoint::handle);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    int openBuffers() {
+        return buffers.size();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+        for (SharedBuffer shared : buffers.values()) {
+            try {
+                shared.buffer.close();
+            } catch (IOException e) {
+                System.err.println("Ошибка при закрытии документа: " + e.getMessage());
+            }
+        }
+        buffers.clear();
+    }
+
+    private void route(String path, String method, Handler handler) {
+        server.createContext(path, exchange -> {
+            long started = System.nanoTime();
+            try (exchange) {
+                int status = 200;
+                String body;
+                try {
+                    if (!exchange.getRequestMethod().equals(method)) {
+                        status = 405;
+                        body = error("Допустим только метод " + method);
+                    } else {
+                        body = handler.handle(parameters(exchange), exchange);
+                    }
+                } catch (NoSuchElementException e) {
+                    status = 404;
+                    body = error(e.getMessage());
+                } catch (IllegalArgumentException e) {
+                    status = 400;
+                    body = error(e.getMessage());
+                } catch (IllegalStateException | ConcurrentModificationException e) {
+                    status = 409;
+                    body = error(e.getMessage());
+                } catch (IOException | UncheckedIOException e) {
+                    status = 500;
+                    body = error(e.getMessage());
+                }
+                if (status != 200) REQUEST_ERRORS.increment();
+                respond(exchange, status, body);
+            } finally {
+                REQUEST_TIME.recordSince(started);
+            }
+        });
+    }
+
+    private static String error(String message) {
+        return Json.object("error", message);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parameters(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) throw new IllegalArgumentException("Не указан параметр " + name);
+        return value;
+    }
+
+    private static int intParameter(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Параметр " + name + " должен быть числом");
+        }
+    }
+
+    private String createSession() {
+        expireSessions();
+        Session session = new Session();
+        sessions.put(session.id, session);
+        return Json.object("session", session.id);
+    }
+
+    private void expireSessions() {
+        long now = System.currentTimeMillis();
+        for (Session session : sessions.values()) {
+            if (now - session.lastAccess > SESSION_TIMEOUT && sessions.remove(session.id, session)) close(session);
+        }
+    }
+
+    // Закрытая сессия больше не держит буфер своего документа
+    private void close(Session session) {
+        session.lock.lock();
+        try {
+            session.closed = true;
+            if (session.document != null) release(session.document);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    // Идентификатор сессии - параметр session или заголовок X-Session
+    private Session session(Map<String, String> params, HttpExchange exchange) {
+        String id = params.get("session");
+        if (id == null) id = exchange.getRequestHeaders().getFirst("X-Session");
+        if (id == null) throw new IllegalArgumentException("Не указана сессия");
+        Session session = sessions.get(id);
+        if (session == null) throw new NoSuchElementException("Сессия не найдена или истекла: " + id);
+        session.lastAccess = System.currentTimeMillis();
+        return session;
+    }
+
+    private String closeSession(Map<String, String> params, HttpExchange exchange) {
+        Session session = session(params, exchange);
+        if (sessions.remove(session.id, session)) close(session);
+        return Json.object("closed", session.id);
+    }
+
+    private String documents() {
+        Path root = manager.getRootDirectory();
+        List<String> result = new ArrayList<>();
+        for (Path path : manager.getDocuments()) {
+            DocumentMetadata m = manager.getMetadata(path);
+            if (m == null) continue;
+            result.add(Json.object("path", root.relativize(path).toString(), "size", m.size(),
+                    "modified", m.modified(), "author", m.author(), "charset", m.charset().name()));
+        }
+        return Json.object("documents", Json.array(result));
+    }
+
+    // Путь задаётся относительно корня и должен входить в коллекцию
+    private Path resolve(String document) {
+        Path root = manager.getRootDirectory();
+        Path path = root.resolve(document).normalize();
+        if (!path.startsWith(root) || manager.getMetadata(path) == null) {
+            throw new NoSuchElementException("Документ не найден: " + document);
+        }
+        return path;
+    }
+
+    // Общий буфер документа; если файл изменили извне, а правок в буфере нет, он открывается заново.
+    // Буфер существует, пока документ открыт хотя бы в одной сессии (acquire / release)
+    private DocumentBuffer buffer(Path path) {
+        SharedBuffer shared = buffers.get(path);
+        DocumentBuffer buffer = shared == null ? null : shared.buffer;
+        if (buffer != null && isCurrent(buffer, path)) return buffer;
+        return update(path, 0).buffer;
+    }
+
+    private void acquire(Path path) {
+        update(path, 1);
+    }
+
+    private SharedBuffer update(Path path, int sessionsDelta) {
+        return buffers.compute(path, (p, shared) -> {
+            if (shared == null) shared = new SharedBuffer();
+            DocumentBuffer existing = shared.buffer;
+            if (existing == null || !(existing.isModified() || isCurrent(existing, p))) {
+                try {
+                    if (existing != null) existing.close();
+                    shared.buffer = DocumentBuffer.open(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            shared.sessions += sessionsDelta;
+            return shared;
+        });
+    }
+
+    // Последняя сессия ушла с документа - буфер закрывается; снимки, которые ещё держат
+    // сессии, остаются читаемыми (закрывается файл, а не отображение)
+    private void release(Path path) {
+        buffers.computeIfPresent(path, (p, shared) -> {
+            if (--shared.sessions > 0) return shared;
+            try {
+                shared.buffer.close();
+            } catch (IOException e) {
+                System.err.println("Ошибка при закрытии документа: " + e.getMessage());
+            }
+            return null;
+        });
+    }
+
+    private boolean isCurrent(DocumentBuffer buffer, Path path) {
+        DocumentMetadata known = manager.getMetadata(path);
+        DocumentMetadata opened = buffer.getFileMetadata();
+        return known == null || (known.size() == opened.size() && known.modified() == opened.modified());
+    }
+
+    private String open(Map<String, String> params, HttpExchange exchange) throws IOException {
+        Session session = session(params, exchange);
+        Path path = resolve(required(params, "document"));
+        int pageSize = intParameter(params, "pageSize", DEFAULT_PAGE_SIZE);
+        if (pageSize <= 0) throw new IllegalArgumentException("Размер страницы должен быть положительным");
+        session.lock.lock();
+        try {
+            show(session, path, pageSize);
+            return pageJson(session, 0);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    // Сессия получает текущий снимок буфера вместе с номером его версии;
+    // разметка и страницы общие для всех сессий этой версии
+    private void show(Session session, Path path, int pageSize) throws IOException {
+        if (session.closed) throw new NoSuchElementException("Сессия закрыта: " + session.id);
+        boolean switching = !path.equals(session.document);
+        if (switching) acquire(path);
+        DocumentStore.Versioned<DocumentBuffer.Saved> opened;
+        try {
+            opened = opened(path);
+        } catch (IOException | RuntimeException e) {
+            if (switching) release(path);
+            throw e;
+        }
+        if (switching && session.document != null) release(session.document);
+        DocumentBuffer.Snapshot snapshot = opened.value().snapshot();
+        DocumentMetadata version = opened.value().fileMetadata();
+        session.document = path;
+        session.version = version;
+        session.stamp = opened.version();
+        session.snapshot = snapshot;
+        session.layout = PageLayout.forDocument(path, version, snapshot, pageSize);
+        session.page = 0;
+        session.searchResults = List.of();
+        session.currentSearchIndex = 0;
+    }
+
+    // Пока номер версии в хранилище не менялся, сессии берут опубликованный снимок без блокировок,
+    // в том числе во время записи документа другой сессией. Иначе читается сохранённая версия
+    // буфера (правки, которые ещё пишутся на диск, в неё не входят) и публикуется для остальных.
+    private DocumentStore.Versioned<DocumentBuffer.Saved> opened(Path path) throws IOException {
+        SharedBuffer shared = buffers.get(path);
+        DocumentStore.Versioned<DocumentBuffer.Saved> published = shared == null ? null : shared.published;
+        if (published != null && published.version() == manager.getStore().version(path)) return published;
+        DocumentStore.Versioned<DocumentBuffer.Saved> opened = manager.getStore().read(path, () -> buffer(path).saved());
+        shared = buffers.get(path);
+        if (shared != null) {
+            published = shared.published;
+            if (published == null || published.version() < opened.version()) shared.published = opened;
+        }
+        return opened;
+    }
+
+    private static void requireDocument(Session session) {
+        if (session.document == null) throw new IllegalStateException("Документ не открыт");
+    }
+
+    private String page(Map<String, String> params, HttpExchange exchange) {
+        Session session = session(params, exchange);
+        session.lock.lock();
+        try {
+            requireDocument(session);
+            int page = intParameter(params, "page", session.page);
+            if (!session.layout.hasPage(page)) throw new NoSuchElementException("Страница не найдена: " + (page + 1));
+            return pageJson(session, page);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    // Номера страниц в ответах - с нуля
+    private String pageJson(Session session, int page) {
+        PageLayout layout = session.layout;
+        long start = layout.pageStart(page);
+        long end = layout.pageEnd(page);
+        String text = manager.getCache().page(session.document, session.version, session.snapshot, start, end);
+        session.page = page;
+        return Json.object("document", manager.getRootDirectory().relativize(session.document).toString(),
+                "version", session.stamp, "page", page, "pages", layout.knownPages(), "complete", layout.isComplete(),
+                "start", start, "end", end, "text", text);
+    }
+
+    private String search(Map<String, String> params, HttpExchange exchange) {
+        Session session = session(params, exchange);
+        String query = required(params, "q");
+        PatternSearcher.Options options = PatternSearcher.Options.parse(params.getOrDefault("flags", ""));
+        session.lock.lock();
+        try {
+            requireDocument(session);
+            session.searchResults = manager.getCache().findAll(session.document, session.version,
+                    session.snapshot, List.of(query), options);
+            session.currentSearchIndex = 0;
+            List<String> hits = new ArrayList<>();
+            for (int i = 0; i < Math.min(MAX_HITS, session.searchResults.size()); i++) {
+                hits.add(hitJson(session, i));
+            }
+            return Json.object("matches", session.searchResults.size(), "hits", Json.array(hits));
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    private String hitJson(Session session, int index) {
+        PatternSearcher.Match match = session.searchResults.get(index);
+        DocumentBuffer.Snapshot snapshot = session.snapshot;
+        long contextStart = snapshot.alignToChar(Math.max(0, match.start() - CONTEXT_BYTES));
+        long contextEnd = snapshot.alignToChar(Math.min(snapshot.size(), match.end() + CONTEXT_BYTES));
+        return Json.object("index", index, "start", match.start(), "end", match.end(),
+                "page", session.layout.pageOf(match.start()),
+                "before", snapshot.decode(contextStart, match.start()),
+                "match", snapshot.decode(match.start(), match.end()),
+                "after", snapshot.decode(match.end(), contextEnd));
+    }
+
+    // Переход к совпадению: index - номер, иначе следующее за текущим
+    private String hit(Map<String, String> params, HttpExchange exchange) {
+        Session session = session(params, exchange);
+        session.lock.lock();
+        try {
+            requireDocument(session);
+            if (session.searchResults.isEmpty()) throw new IllegalStateException("Нет результатов поиска");
+            int index = intParameter(params, "index", session.currentSearchIndex);
+            if (index < 0 || index >= session.searchResults.size()) {
+                throw new NoSuchElementException("Совпадение не найдено: " + index);
+            }
+            session.currentSearchIndex = index + 1 < session.searchResults.size() ? index + 1 : index;
+            int page = session.layout.pageOf(session.searchResults.get(index).start());
+            return Json.object("hit", new Json.Raw(hitJson(session, index)), "page", new Json.Raw(pageJson(session, page)));
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    // Замена всех вхождений в открытом документе с немедленным сохранением.
+    // Совпадения ищутся в снимке сессии; если документ с тех пор изменился, замена отклоняется (409)
+    // и документ нужно открыть заново.
+    private String replace(Map<String, String> params, HttpExchange exchange) throws IOException {
+        Session session = session(params, exchange);
+        String find = required(params, "find");
+        String replaceText = params.getOrDefault("replace", "");
+        PatternSearcher.Options options = PatternSearcher.Options.parse(params.getOrDefault("flags", ""));
+        session.lock.lock();
+        try {
+            requireDocument(session);
+            byte[] replacement = TextEncoding.encode(replaceText, session.snapshot.charset());
+            Path path = session.document;
+            List<PatternSearcher.Match> matches = PatternSearcher.nonOverlapping(manager.getCache().findAll(path,
+                    session.version, session.snapshot, List.of(find), options));
+            if (matches.isEmpty()) return Json.object("replaced", 0, "version", session.stamp);
+
+            List<DocumentBuffer.Edit> edits = new ArrayList<>(matches.size());
+            for (PatternSearcher.Match match : matches) {
+                edits.add(new DocumentBuffer.Edit(match.start(), match.end() - match.start(), replacement));
+            }
+            manager.getStore().write(path, session.stamp, () -> {
+                DocumentBuffer buffer = buffer(path);
+                buffer.apply(edits);
+                try {
+                    buffer.save();
+                } catch (IOException e) {
+                    // несохранённая правка не должна оставаться в общем буфере
+                    buffer.undo();
+                    throw e;
+                }
+            });
+            manager.applyChanges(Set.of(path), Set.of());
+            show(session, path, session.layout.getPageSize());
+            return Json.object("replaced", edits.size(), "version", session.stamp);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package TextDocumentCollection;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+// Снимок коллекции для быстрого запуска: метаданные документов в текущем порядке сортировки,
+// папки с временем их изменения и параметры сканирования. Пишется при закрытии коллекции,
+// при запуске отображается в память. Папка, время изменения которой не совпало со снимком,
+// перечитывается как список имён, и читаются только новые в ней файлы и папки; документы
+// остальных папок берутся из снимка без обращения к файлам.
+// Правка файла на месте время изменения папки не меняет, поэтому такие документы
+// DocumentManager сверяет уже после запуска, в фоне.
+//
+// Формат: MAGIC, VERSION, время записи, глубина и маски сканирования, таблицы кодировок,
+// авторов и папок (путь, время изменения), число документов, смещения записей документов (long),
+// записи: папка, имя, размер, создан, изменён, автор (-1 - неизвестен), кодировка.
+// Время папок - в наносекундах, строки - длина (int) и UTF-8. Числа - big-endian.
+public final class CollectionSnapshot {
+    public static final String SNAPSHOT_FILE = ".docsnapshot";
+    private static final int MAGIC = 0x5444534E; // "TDSN"
+    private static final int VERSION = 1;
+    // Папка, изменённая незадолго до записи снимка, могла измениться ещё раз в пределах
+    // точности времени файловой системы - такую папку надёжнее перечитать
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final int RECORDS_PER_TASK = 4096;
+    private static final Metrics.Timer LOAD_TIME = Metrics.timer("snapshot_load", "Загрузка снимка коллекции");
+
+    // unverified - документы, взятые из снимка без обращения к их файлам;
+    // changed - появились или пропали документы либо папки, снимок стоит переписать.
+    // Одно несовпадение времени папки снимок не портит: запись самого снимка меняет время корня.
+    public record Restored(List<DocumentMetadata> documents, List<Path> directories,
+                           List<DocumentMetadata> unverified, boolean changed) {
+    }
+
+    private CollectionSnapshot() {
+    }
+
+    public static void save(Path root, DocumentScanner scanner, List<DocumentMetadata> documents,
+                            Collection<Path> directories) throws IOException {
+        // Время берётся до чтения времени папок: изменение после него снимок не скроет
+        long savedAt = nanos(FileTime.from(Instant.now()));
+
+        Map<Path, Integer> directoryIndex = new LinkedHashMap<>();
+        directoryIndex.put(root, 0);
+        for (Path directory : directories) directoryIndex.putIfAbsent(directory, directoryIndex.size());
+        for (DocumentMetadata m : documents) directoryIndex.putIfAbsent(m.path().getParent(), directoryIndex.size());
+        Path[] directoryList = directoryIndex.keySet().toArray(new Path[0]);
+        long[] directoryModified = new long[directoryList.length];
+        IntStream.range(0, directoryList.length).parallel().forEach(i -> {
+            try {
+                directoryModified[i] = nanos(Files.readAttributes(directoryList[i], BasicFileAttributes.class).lastModifiedTime());
+            } catch (IOException e) {
+                // Папки уже нет: при загрузке она не совпадёт и её документы отбросятся
+                directoryModified[i] = -1;
+            }
+        });
+
+        Map<String, Integer> charsets = new LinkedHashMap<>();
+        Map<String, Integer> authors = new LinkedHashMap<>();
+        byte[][] names = new byte[documents.size()][];
+        for (int i = 0; i < names.length; i++) {
+            DocumentMetadata m = documents.get(i);
+            names[i] = m.path().getFileName().toString().getBytes(StandardCharsets.UTF_8);
+            charsets.putIfAbsent(m.charset().name(), charsets.size());
+            if (m.author() != null) authors.putIfAbsent(m.author(), authors.size());
+        }
+        if (charsets.size() > Byte.MAX_VALUE) throw new IOException("Слишком много кодировок для снимка");
+
+        Path file = root.resolve(SNAPSHOT_FILE);
+        Path tmp = root.resolve(SNAPSHOT_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(savedAt);
+            out.writeInt(scanner.getMaxDepth());
+            writeStrings(out, scanner.getPatterns());
+            writeStrings(out, charsets.keySet());
+            writeStrings(out, authors.keySet());
+            out.writeInt(directoryList.length);
+            for (int i = 0; i < directoryList.length; i++) {
+                writeString(out, root.relativize(directoryList[i]).toString());
+                out.writeLong(directoryModified[i]);
+            }
+            out.writeInt(names.length);
+
+            // Записи документов разной длины; таблица смещений позволяет разбирать их параллельно
+            long offset = out.size() + 8L * names.length;
+            for (byte[] name : names) {
+                out.writeLong(offset);
+                offset += 4 + 4 + name.length + 8 * 3 + 4 + 1;
+            }
+            for (int i = 0; i < names.length; i++) {
+                DocumentMetadata m = documents.get(i);
+                out.writeInt(directoryIndex.get(m.path().getParent()));
+                out.writeInt(names[i].length);
+                out.write(names[i]);
+                out.writeLong(m.size());
+                out.writeLong(m.created());
+                out.writeLong(m.modified());
+                out.writeInt(m.author() == null ? -1 : authors.get(m.author()));
+                out.writeByte(charsets.get(m.charset().name()));
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // null - снимка нет, он повреждён или записан с другими параметрами сканирования
+    public static Restored restore(Path root, DocumentScanner scanner) {
+        Path file = root.resolve(SNAPSHOT_FILE);
+        if (!Files.isRegularFile(file)) return null;
+        long started = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) return null;
+            // Отображение остаётся доступным и после закрытия канала
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Restored restored = read(root, scanner, buffer);
+            LOAD_TIME.recordSince(started);
+            return restored;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Снимок коллекции повреждён, папки будут обойдены заново: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Restored read(Path root, DocumentScanner scanner, ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("неизвестный формат снимка");
+        }
+        long savedAt = buffer.getLong();
+        int maxDepth = buffer.getInt();
+        List<String> patterns = readStrings(buffer);
+        if (maxDepth != scanner.getMaxDepth() || !patterns.equals(scanner.getPatterns())) return null;
+        Charset[] charsets = readStrings(buffer).stream().map(Charset::forName).toArray(Charset[]::new);
+        String[] authors = readStrings(buffer).toArray(new String[0]);
+
+        int directoryCount = buffer.getInt();
+        Path[] directories = new Path[directoryCount];
+        long[] directoryModified = new long[directoryCount];
+        for (int i = 0; i < directoryCount; i++) {
+            directories[i] = root.resolve(readString(buffer));
+            directoryModified[i] = buffer.getLong();
+        }
+        boolean[] changed = new boolean[directoryCount];
+        IntStream.range(0, directoryCount).parallel()
+                .forEach(i -> changed[i] = !unchanged(directories[i], directoryModified[i], savedAt));
+
+        int count = buffer.getInt();
+        int offsets = buffer.position();
+        DocumentMetadata[] records = new DocumentMetadata[count];
+        int[] directoryOf = new int[count];
+        IntStream.range(0, (count + RECORDS_PER_TASK - 1) / RECORDS_PER_TASK).parallel().forEach(task -> {
+            ByteBuffer view = buffer.duplicate();
+            for (int i = task * RECORDS_PER_TASK; i < Math.min(count, (task + 1) * RECORDS_PER_TASK); i++) {
+                view.position(Math.toIntExact(view.getLong(offsets + 8 * i)));
+                int directory = view.getInt();
+                Path path = directories[directory].resolve(readString(view));
+                long size = view.getLong();
+                long created = view.getLong();
+                long modified = view.getLong();
+                int author = view.getInt();
+                records[i] = new DocumentMetadata(path, size, created, modified,
+                        author < 0 ? null : authors[author], charsets[view.get()]);
+                directoryOf[i] = directory;
+            }
+        });
+
+        // Изменившаяся папка перечитывается как список имён: пропавшие документы отбрасываются,
+        // а читаются только новые файлы и папки. Известные документы остаются из снимка -
+        // их содержимое сверяется в фоне вместе с остальными.
+        Map<Path, Integer> inChanged = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            if (changed[directoryOf[i]]) inChanged.put(records[i].path(), i);
+        }
+        Set<Path> known = new HashSet<>(Arrays.asList(directories));
+        List<Path> unchangedDirectories = new ArrayList<>(directoryCount);
+        List<Path> listedDirectories = new ArrayList<>();
+        for (int i = 0; i < directoryCount; i++) {
+            if (!changed[i]) {
+                unchangedDirectories.add(directories[i]);
+            } else if (Files.isDirectory(directories[i])) {
+                listedDirectories.add(directories[i]);
+            }
+        }
+        Set<Path> listed = ConcurrentHashMap.newKeySet();
+        Queue<Path> unknown = new ConcurrentLinkedQueue<>();
+        listedDirectories.parallelStream().forEach(directory -> {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path entry : stream) {
+                    if (inChanged.containsKey(entry)) {
+                        listed.add(entry);
+                    } else if (!known.contains(entry)) {
+                        unknown.add(entry);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Не удалось прочитать папку " + directory + ": " + e.getMessage());
+            }
+        });
+        DocumentScanner.ScanResult rescanned = scanner.rescan(root, unknown);
+
+        List<DocumentMetadata> documents = new ArrayList<>(count + rescanned.documents().size());
+        List<DocumentMetadata> unverified = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (changed[directoryOf[i]] && !listed.contains(records[i].path())) continue;
+            documents.add(records[i]);
+            unverified.add(records[i]);
+        }
+        // Новые документы - в конце, как при наблюдении за папкой
+        List<DocumentMetadata> added = new ArrayList<>(rescanned.documents());
+        added.sort(Comparator.comparing(DocumentMetadata::path));
+        documents.addAll(added);
+
+        List<Path> allDirectories = new ArrayList<>(unchangedDirectories);
+        allDirectories.addAll(listedDirectories);
+        allDirectories.addAll(rescanned.directories());
+        boolean modified = documents.size() != count || !added.isEmpty() || !rescanned.directories().isEmpty() ||
+                unchangedDirectories.size() + listedDirectories.size() != directoryCount;
+        return new Restored(documents, allDirectories, unverified, modified);
+    }
+
+    private static boolean unchanged(Path directory, long modified, long savedAt) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(directory, BasicFileAttributes.class);
+            return attrs.isDirectory() && nanos(attrs.lastModifiedTime()) == modified && modified < savedAt - RACY_NANOS;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) writeString(out, value);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<String> result = new ArrayList<>(Math.min(count, buffer.remaining()));
+        for (int i = 0; i < count; i++) result.add(readString(buffer));
+        return result;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
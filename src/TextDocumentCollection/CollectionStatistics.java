@@ -0,0 +1,210 @@
+package TextDocumentCollection;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.*;
+
+// Сводка по всей коллекции: объём, строки, слова, частоты терминов, распределение
+// документов по авторам и по месяцам изменения. Вклад каждого документа хранится отдельно,
+// поэтому при изменении документа его старый вклад вычитается, а новый прибавляется -
+// без пересчёта остальной коллекции. Документы разбираются параллельно и потоково.
+public class CollectionStatistics {
+    private static final int READ_BUFFER = 1 << 16;
+    private static final String UNKNOWN_AUTHOR = "";
+    private static final Metrics.Timer UPDATE_TIME =
+            Metrics.timer("statistics_update", "Пересчёт статистики по изменённым документам");
+
+    public record DocumentStats(long bytes, long lines, long words, ObjectIntMap<String> terms) {
+    }
+
+    public record Count(String key, int count) {
+    }
+
+    public record Summary(int documents, long bytes, long lines, long words, int uniqueTerms,
+                          List<Count> topTerms, List<Count> authors, List<Count> months) {
+    }
+
+    private record Entry(DocumentMetadata metadata, DocumentStats stats) {
+    }
+
+    private final Map<Path, Entry> documents = new HashMap<>();
+    private final ObjectIntMap<String> terms = new ObjectIntMap<>();
+    private final ObjectIntMap<String> authors = new ObjectIntMap<>();
+    private final ObjectIntMap<String> months = new ObjectIntMap<>();
+    private long bytes;
+    private long lines;
+    private long words;
+
+    public static CollectionStatistics compute(Collection<DocumentMetadata> documents) {
+        CollectionStatistics statistics = new CollectionStatistics();
+        statistics.synchronize(documents);
+        return statistics;
+    }
+
+    // Приводит сводку к заданному списку документов; возвращает true, если она изменилась
+    public synchronized boolean synchronize(Collection<DocumentMetadata> current) {
+        Set<Path> currentSet = new HashSet<>();
+        current.forEach(m -> currentSet.add(m.path()));
+        Set<Path> removed = new HashSet<>();
+        for (Path path : documents.keySet()) {
+            if (!currentSet.contains(path)) removed.add(path);
+        }
+        return update(current, removed);
+    }
+
+    public synchronized void applyChanges(Collection<DocumentMetadata> changed, Set<Path> removed) {
+        update(changed, removed);
+    }
+
+    private boolean update(Collection<DocumentMetadata> changed, Set<Path> removed) {
+        boolean modified = false;
+        for (Path path : removed) {
+            Entry old = documents.remove(path);
+            if (old != null) {
+                account(old, -1);
+                modified = true;
+            }
+        }
+
+        List<DocumentMetadata> toAnalyze = new ArrayList<>();
+        for (DocumentMetadata m : changed) {
+            Entry old = documents.get(m.path());
+            if (old == null || old.metadata().size() != m.size() || old.metadata().modified() != m.modified()) {
+                toAnalyze.add(m);
+            } else if (!Objects.equals(old.metadata().author(), m.author())) {
+                // Сменился только автор: содержимое разбирать заново незачем
+                Entry updated = new Entry(m, old.stats());
+                account(old, -1);
+                account(updated, 1);
+                documents.put(m.path(), updated);
+                modified = true;
+            }
+        }
+        if (toAnalyze.isEmpty()) return modified;
+
+        long started = System.nanoTime();
+        List<Entry> analyzed = toAnalyze.parallelStream()
+                .map(m -> {
+                    try {
+                        return new Entry(m, analyze(m.path(), m.charset()));
+                    } catch (IOException e) {
+                        System.out.println("Не удалось обработать " + m.path().getFileName() + ": " + e.getMessage());
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull)
+                .toList();
+
+        for (Entry entry : analyzed) {
+            Entry old = documents.put(entry.metadata().path(), entry);
+            if (old != null) account(old, -1);
+            account(entry, 1);
+        }
+        UPDATE_TIME.recordSince(started);
+        return true;
+    }
+
+    private void account(Entry entry, int sign) {
+        DocumentStats stats = entry.stats();
+        bytes += sign * stats.bytes();
+        lines += sign * stats.lines();
+        words += sign * stats.words();
+        terms.addAll(stats.terms(), sign);
+        String author = entry.metadata().author();
+        authors.add(author != null ? author : UNKNOWN_AUTHOR, sign);
+        months.add(month(entry.metadata().modified()), sign);
+    }
+
+    private static String month(long millis) {
+        return YearMonth.from(Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault())).toString();
+    }
+
+    // Потоковый разбор: текст не собирается в одну строку, слова выделяются как в SearchIndex.terms
+    public static DocumentStats analyze(Path path, Charset charset) throws IOException {
+        ObjectIntMap<String> terms = new ObjectIntMap<>();
+        long lines = 0;
+        long words = 0;
+        boolean lineOpen = false;
+        StringBuilder word = new StringBuilder();
+        char[] buffer = new char[READ_BUFFER];
+
+        long size;
+        try (DocumentFile file = DocumentFile.open(path, charset);
+             Reader reader = new InputStreamReader(file.newInputStream(), charset.newDecoder()
+                     .onMalformedInput(CodingErrorAction.REPLACE)
+                     .onUnmappableCharacter(CodingErrorAction.REPLACE))) {
+            size = file.size();
+            int n;
+            while ((n = reader.read(buffer)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    char c = buffer[i];
+                    if (Character.isLetterOrDigit(c)) {
+                        word.append(c);
+                        lineOpen = true;
+                        continue;
+                    }
+                    if (!word.isEmpty()) {
+                        terms.increment(word.toString().toLowerCase());
+                        words++;
+                        word.setLength(0);
+                    }
+                    if (c == '\n') {
+                        lines++;
+                        lineOpen = false;
+                    } else {
+                        lineOpen = true;
+                    }
+                }
+            }
+        }
+        if (!word.isEmpty()) {
+            terms.increment(word.toString().toLowerCase());
+            words++;
+        }
+        if (lineOpen) lines++;
+        return new DocumentStats(size, lines, words, terms);
+    }
+
+    public synchronized int documentCount() {
+        return documents.size();
+    }
+
+    public synchronized Summary summary(int topTerms) {
+        return new Summary(documents.size(), bytes, lines, words, terms.size(),
+                top(terms, topTerms),
+                sorted(authors, Comparator.comparingInt(Count::count).reversed().thenComparing(Count::key)),
+                sorted(months, Comparator.comparing(Count::key)));
+    }
+
+    // Первые n по убыванию частоты: куча из n элементов вместо сортировки всего словаря
+    private static List<Count> top(ObjectIntMap<String> counts, int n) {
+        if (n <= 0) return List.of();
+        Comparator<Count> order = Comparator.comparingInt(Count::count).thenComparing(Count::key, Comparator.reverseOrder());
+        PriorityQueue<Count> heap = new PriorityQueue<>(n + 1, order);
+        counts.forEach((key, count) -> {
+            if (heap.size() < n) {
+                heap.add(new Count(key, count));
+            } else if (count >= heap.peek().count()) {
+                heap.add(new Count(key, count));
+                heap.poll();
+            }
+        });
+        List<Count> result = new ArrayList<>(heap);
+        result.sort(order.reversed());
+        return result;
+    }
+
+    private static List<Count> sorted(ObjectIntMap<String> counts, Comparator<Count> order) {
+        List<Count> result = new ArrayList<>(counts.size());
+        counts.forEach((key, count) -> result.add(new Count(key, count)));
+        result.sort(order);
+        return result;
+    }
+}
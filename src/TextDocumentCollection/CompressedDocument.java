@@ -0,0 +1,336 @@
+package TextDocumentCollection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Документ в поблочно сжатом формате .txtz: текст делится на блоки фиксированного размера,
+// каждый сжимается Deflate отдельно, в конце файла - таблица смещений блоков.
+// Чтение диапазона распаковывает только задетые им блоки. При последовательном чтении
+// (поиск, разметка, статистика) следующие блоки распаковываются заранее параллельно.
+//
+// Формат: MAGIC, блоки, смещения (count + 1 чисел long), размер текста (long),
+// размер блока (int), число блоков (int), MAGIC. Числа - big-endian.
+//
+// Файл читается через канал, а не отображение, поэтому после close блоки читать нельзя.
+// Если документ закрыть явно нельзя (на него ссылаются снимки DocumentBuffer), канал
+// закроется, когда документ станет недостижим.
+public class CompressedDocument implements DocumentFile {
+    public static final String EXTENSION = ".txtz";
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+    private static final int MAGIC = 0x5444435A; // "TDCZ"
+    private static final int TRAILER_SIZE = 8 + 4 + 4 + 4;
+    private static final int READ_AHEAD = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final Metrics.Counter BLOCKS_INFLATED =
+            Metrics.counter("blocks_inflated", "Распаковано блоков сжатых документов");
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final FileChannel channel;
+    private final Cleaner.Cleanable cleanable;
+    private final long size;
+    private final Charset charset;
+    private final int blockSize;
+    private final long[] offsets;
+    // Распакованные и распаковываемые блоки; заказанный заранее блок ещё может быть в работе
+    private final Map<Integer, CompletableFuture<byte[]>> blocks;
+    private int lastBlock = -1;
+
+    private CompressedDocument(FileChannel channel, Charset charset) throws IOException {
+        this.channel = channel;
+        this.charset = charset;
+        this.cleanable = CLEANER.register(this, () -> closeQuietly(channel));
+        long fileSize = channel.size();
+        if (fileSize < 4 + 8 + TRAILER_SIZE || readInt(0) != MAGIC) throw corrupted();
+
+        ByteBuffer trailer = read(fileSize - TRAILER_SIZE, TRAILER_SIZE);
+        this.size = trailer.getLong();
+        this.blockSize = trailer.getInt();
+        int count = trailer.getInt();
+        if (trailer.getInt() != MAGIC || size < 0 || blockSize <= 0 || count < 0 ||
+                count != (int) ((size + blockSize - 1) / blockSize)) {
+            throw corrupted();
+        }
+        long tableStart = fileSize - TRAILER_SIZE - (count + 1L) * 8;
+        if (tableStart < 4) throw corrupted();
+        ByteBuffer table = read(tableStart, (count + 1) * 8);
+        this.offsets = new long[count + 1];
+        for (int i = 0; i <= count; i++) {
+            offsets[i] = table.getLong();
+            if (i == 0 ? offsets[i] != 4 : offsets[i] < offsets[i - 1]) throw corrupted();
+        }
+        if (offsets[count] != tableStart) throw corrupted();
+
+        int capacity = READ_AHEAD * 2 + 4;
+        this.blocks = new LinkedHashMap<>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CompletableFuture<byte[]>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // Кодировка текста в сжатом файле не хранится: её определяет и передаёт DocumentFile.open
+    public static CompressedDocument open(Path path, Charset charset) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new CompressedDocument(channel, charset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static boolean isCompressed(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(EXTENSION);
+    }
+
+    private static IOException corrupted() {
+        return new IOException("Файл повреждён или не является сжатым документом");
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public Charset charset() {
+        return charset;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int blockCount() {
+        return offsets.length - 1;
+    }
+
+    // Размер файла на диске
+    public long compressedSize() {
+        return offsets[offsets.length - 1] + (offsets.length * 8L) + TRAILER_SIZE;
+    }
+
+    @Override
+    public byte get(long pos) {
+        return block((int) (pos / blockSize))[(int) (pos % blockSize)];
+    }
+
+    @Override
+    public void get(long pos, byte[] dst, int off, int len) {
+        while (len > 0) {
+            byte[] block = block((int) (pos / blockSize));
+            int inBlock = (int) (pos % blockSize);
+            int chunk = Math.min(len, block.length - inBlock);
+            System.arraycopy(block, inBlock, dst, off, chunk);
+            pos += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    private byte[] block(int index) {
+        CompletableFuture<byte[]> future;
+        boolean load = false;
+        synchronized (blocks) {
+            future = blocks.get(index);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                blocks.put(index, future);
+                load = true;
+            }
+            // Обращение к следующему блоку - признак последовательного чтения
+            if (index == lastBlock + 1) readAhead(index + 1);
+            lastBlock = index;
+        }
+        if (load) {
+            try {
+                future.complete(inflate(index));
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+                synchronized (blocks) {
+                    blocks.remove(index, future);
+                }
+            }
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtime) throw runtime;
+            throw new UncheckedIOException(cause instanceof IOException io ? io : new IOException(cause));
+        }
+    }
+
+    private void readAhead(int from) {
+        for (int i = from; i < Math.min(blockCount(), from + READ_AHEAD); i++) {
+            if (blocks.containsKey(i)) continue;
+            int index = i;
+            blocks.put(index, CompletableFuture.supplyAsync(() -> {
+                try {
+                    return inflate(index);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+    }
+
+    private byte[] inflate(int index) throws IOException {
+        long start = offsets[index];
+        ByteBuffer compressed = read(start, (int) (offsets[index + 1] - start));
+        int length = (int) Math.min(blockSize, size - (long) index * blockSize);
+        byte[] result = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int filled = 0;
+            while (filled < length && !inflater.finished()) {
+                int n = inflater.inflate(result, filled, length - filled);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                filled += n;
+            }
+            if (filled != length) throw corrupted();
+        } catch (DataFormatException e) {
+            throw new IOException("Повреждён блок " + index + " сжатого документа: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        BLOCKS_INFLATED.increment();
+        return result;
+    }
+
+    private int readInt(long position) throws IOException {
+        return read(position, 4).getInt();
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.BIG_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw corrupted();
+        }
+        return buffer.flip();
+    }
+
+    @Override
+    public void close() {
+        cleanable.clean();
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Ошибка при закрытии сжатого документа: " + e.getMessage());
+        }
+    }
+
+    // Сжимает содержимое в файл target целиком и сбрасывает его на диск
+    public static void write(ByteSource content, Path target, int blockSize) throws IOException {
+        try (OutputStream out = newOutputStream(target, blockSize)) {
+            byte[] buffer = new byte[blockSize];
+            long size = content.size();
+            for (long pos = 0; pos < size; pos += buffer.length) {
+                int len = (int) Math.min(buffer.length, size - pos);
+                content.get(pos, buffer, 0, len);
+                out.write(buffer, 0, len);
+            }
+        }
+    }
+
+    // Поток записи в новом формате; таблица смещений дописывается при закрытии
+    public static OutputStream newOutputStream(Path target, int blockSize) throws IOException {
+        return new BlockOutputStream(FileChannel.open(target, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), blockSize);
+    }
+
+    private static final class BlockOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private final byte[] block;
+        private final byte[] compressed;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        private long[] offsets = new long[16];
+        private int count;
+        private int filled;
+        private long position;
+        private long size;
+        private boolean closed;
+
+        BlockOutputStream(FileChannel channel, int blockSize) throws IOException {
+            this.channel = channel;
+            this.block = new byte[blockSize];
+            this.compressed = new byte[blockSize + (blockSize >> 3) + 64];
+            ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC).flip();
+            writeFully(header);
+            offsets[0] = position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            block[filled++] = (byte) b;
+            if (filled == block.length) flushBlock();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int chunk = Math.min(len, block.length - filled);
+                System.arraycopy(b, off, block, filled, chunk);
+                filled += chunk;
+                off += chunk;
+                len -= chunk;
+                if (filled == block.length) flushBlock();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            deflater.reset();
+            deflater.setInput(block, 0, filled);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(compressed);
+                writeFully(ByteBuffer.wrap(compressed, 0, n));
+            }
+            size += filled;
+            filled = 0;
+            if (++count + 1 > offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            offsets[count] = position;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) position += channel.write(buffer);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                if (filled > 0) flushBlock();
+                ByteBuffer footer = ByteBuffer.allocate((count + 1) * 8 + TRAILER_SIZE);
+                for (int i = 0; i <= count; i++) footer.putLong(offsets[i]);
+                footer.putLong(size).putInt(block.length).putInt(count).putInt(MAGIC);
+                writeFully(footer.flip());
+                channel.force(true);
+            } finally {
+                deflater.end();
+                channel.close();
+            }
+        }
+    }
+}
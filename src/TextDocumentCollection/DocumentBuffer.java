@@ -0,0 +1,424 @@
+package TextDocumentCollection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Буфер редактирования документа - таблица кусков (piece table).
+// Куски ссылаются на отображённый в память исходный файл или на буфер добавлений
+// и хранятся в неизменяемом декартовом дереве по неявному ключу: вставка и замена
+// стоят O(log n), а каждая версия дерева - готовый снимок для отмены и для чтения.
+// На диск буфер попадает только при сохранении.
+public class DocumentBuffer implements ByteSource, Closeable {
+    private static final int WRITE_BUFFER = 1 << 16;
+    private static final Metrics.Timer OPEN_TIME = Metrics.timer("document_open", "Открытие документа в буфере");
+    private static final Metrics.Timer SAVE_TIME = Metrics.timer("document_save", "Сохранение буфера на диск");
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("bytes_written", "Записано байтов документов");
+
+    // Правка: заменить length байтов начиная с offset
+    public record Edit(long offset, long length, byte[] replacement) {
+    }
+
+    // Сохранённая версия и атрибуты файла, из которого она прочитана
+    public record Saved(Snapshot snapshot, DocumentMetadata fileMetadata) {
+    }
+
+    private static final class Node {
+        final ByteSource source;
+        final long start;
+        final long length;
+        final Node left;
+        final Node right;
+        final int priority;
+        final long total;
+
+        Node(ByteSource source, long start, long length, Node left, Node right, int priority) {
+            this.source = source;
+            this.start = start;
+            this.length = length;
+            this.left = left;
+            this.right = right;
+            this.priority = priority;
+            this.total = length + size(left) + size(right);
+        }
+
+        Node with(Node left, Node right) {
+            return new Node(source, start, length, left, right, priority);
+        }
+    }
+
+    // Неизменяемая версия документа; её можно читать из любого потока
+    public static final class Snapshot implements ByteSource {
+        private final Node root;
+        private final Charset charset;
+
+        private Snapshot(Node root, Charset charset) {
+            this.root = root;
+            this.charset = charset;
+        }
+
+        @Override
+        public long size() {
+            return DocumentBuffer.size(root);
+        }
+
+        @Override
+        public Charset charset() {
+            return charset;
+        }
+
+        @Override
+        public void get(long pos, byte[] dst, int off, int len) {
+            if (pos < 0 || pos + len > size()) {
+                throw new IndexOutOfBoundsException("Выход за границы документа: " + pos + "+" + len);
+            }
+            read(root, pos, dst, off, len);
+        }
+    }
+
+    // Буфер добавлений растёт только в конец, поэтому записанные байты не меняются
+    private static final class AddBuffer implements ByteSource {
+        private static final int BLOCK_SHIFT = 16;
+        private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+        private volatile byte[][] blocks = new byte[0][];
+        private volatile long size;
+
+        long append(byte[] data) {
+            long start = size;
+            long end = start + data.length;
+            int needed = (int) ((end + BLOCK_SIZE - 1) >>> BLOCK_SHIFT);
+            if (needed > blocks.length) {
+                byte[][] grown = Arrays.copyOf(blocks, Math.max(needed, blocks.length * 2));
+                for (int i = blocks.length; i < grown.length; i++) grown[i] = new byte[BLOCK_SIZE];
+                blocks = grown;
+            }
+            int off = 0;
+            long pos = start;
+            while (off < data.length) {
+                int inBlock = (int) (pos & (BLOCK_SIZE - 1));
+                int chunk = Math.min(data.length - off, BLOCK_SIZE - inBlock);
+                System.arraycopy(data, off, blocks[(int) (pos >>> BLOCK_SHIFT)], inBlock, chunk);
+                off += chunk;
+                pos += chunk;
+            }
+            size = end;
+            return start;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public void get(long pos, byte[] dst, int off, int len) {
+            byte[][] blocks = this.blocks;
+            while (len > 0) {
+                int inBlock = (int) (pos & (BLOCK_SIZE - 1));
+                int chunk = Math.min(len, BLOCK_SIZE - inBlock);
+                System.arraycopy(blocks[(int) (pos >>> BLOCK_SHIFT)], inBlock, dst, off, chunk);
+                pos += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+        }
+    }
+
+    private final Path path;
+    // Не монитор: сохранение пишет файл под блокировкой, а виртуальный поток не должен
+    // занимать поток-носитель на время записи
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AddBuffer added = new AddBuffer();
+    // Кодировка определяется при открытии и не меняется при сохранениях: правки кодируются в неё же
+    private final Charset charset;
+    private DocumentFile original;
+    private DocumentMetadata fileMetadata;
+    private Node root;
+    private Node savedRoot;
+    private final Deque<Snapshot> undoStack = new ArrayDeque<>();
+    private final Deque<Snapshot> redoStack = new ArrayDeque<>();
+
+    private DocumentBuffer(Path path) throws IOException {
+        this.path = path;
+        this.fileMetadata = DocumentMetadata.read(path);
+        this.charset = fileMetadata.charset();
+        map();
+    }
+
+    public static DocumentBuffer open(Path path) throws IOException {
+        long started = System.nanoTime();
+        DocumentBuffer buffer = new DocumentBuffer(path);
+        OPEN_TIME.recordSince(started);
+        return buffer;
+    }
+
+    private void reopen() throws IOException {
+        fileMetadata = DocumentMetadata.read(path);
+        map();
+    }
+
+    private void map() throws IOException {
+        original = DocumentFile.open(path, charset);
+        root = original.size() == 0 ? null : leaf(original, 0, original.size());
+        savedRoot = root;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // Атрибуты файла на момент открытия или последнего сохранения
+    public DocumentMetadata getFileMetadata() {
+        lock.lock();
+        try {
+            return fileMetadata;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Атрибуты файла, если текущая версия с ним совпадает; при несохранённых правках - null
+    public DocumentMetadata getSavedMetadata() {
+        lock.lock();
+        try {
+            return isModified() ? null : fileMetadata;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Charset charset() {
+        return charset;
+    }
+
+    public Snapshot snapshot() {
+        lock.lock();
+        try {
+            return new Snapshot(root, charset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Версия, совпадающая с файлом на диске (без несохранённых правок), вместе с его атрибутами
+    public Saved saved() {
+        lock.lock();
+        try {
+            return new Saved(new Snapshot(savedRoot, charset), fileMetadata);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long size() {
+        lock.lock();
+        try {
+            return size(root);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void get(long pos, byte[] dst, int off, int len) {
+        snapshot().get(pos, dst, off, len);
+    }
+
+    public boolean isModified() {
+        lock.lock();
+        try {
+            return root != savedRoot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void insert(long pos, byte[] data) {
+        apply(List.of(new Edit(pos, 0, data)));
+    }
+
+    public void delete(long pos, long length) {
+        apply(List.of(new Edit(pos, length, new byte[0])));
+    }
+
+    public void replace(long pos, long length, byte[] data) {
+        apply(List.of(new Edit(pos, length, data)));
+    }
+
+    // Применяет отсортированные непересекающиеся правки как один шаг отмены.
+    // Правки идут с конца, чтобы смещения ещё не применённых оставались верными.
+    public void apply(List<Edit> edits) {
+        lock.lock();
+        try {
+            if (edits.isEmpty()) return;
+            Node result = root;
+            long limit = size(root);
+            for (int i = edits.size() - 1; i >= 0; i--) {
+                Edit edit = edits.get(i);
+                if (edit.offset() < 0 || edit.length() < 0 || edit.offset() + edit.length() > limit) {
+                    throw new IllegalArgumentException("Правки пересекаются, не отсортированы или выходят за границы документа");
+                }
+                limit = edit.offset();
+                Node[] head = split(result, edit.offset());
+                Node[] tail = split(head[1], edit.length());
+                Node middle = null;
+                if (edit.replacement().length > 0) {
+                    middle = leaf(added, added.append(edit.replacement()), edit.replacement().length);
+                }
+                result = merge(merge(head[0], middle), tail[1]);
+            }
+            undoStack.push(new Snapshot(root, charset));
+            redoStack.clear();
+            root = result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean undo() {
+        lock.lock();
+        try {
+            if (undoStack.isEmpty()) return false;
+            redoStack.push(new Snapshot(root, charset));
+            root = undoStack.pop().root;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean redo() {
+        lock.lock();
+        try {
+            if (redoStack.isEmpty()) return false;
+            undoStack.push(new Snapshot(root, charset));
+            root = redoStack.pop().root;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Записывает текущую версию во временный файл и атомарно подменяет документ.
+    // История правок сохраняется: старые куски продолжают ссылаться на прежнее отображение.
+    public void save() throws IOException {
+        lock.lock();
+        try {
+            long started = System.nanoTime();
+            Snapshot snapshot = snapshot();
+            Path directory = path.toAbsolutePath().getParent();
+            Path tmp = Files.createTempFile(directory, "." + path.getFileName(), ".tmp");
+            try {
+                if (CompressedDocument.isCompressed(path)) {
+                    CompressedDocument.write(snapshot, tmp, CompressedDocument.DEFAULT_BLOCK_SIZE);
+                } else try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    byte[] buffer = new byte[WRITE_BUFFER];
+                    long size = snapshot.size();
+                    for (long pos = 0; pos < size; pos += buffer.length) {
+                        int len = (int) Math.min(buffer.length, size - pos);
+                        snapshot.get(pos, buffer, 0, len);
+                        ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, len);
+                        while (chunk.hasRemaining()) out.write(chunk);
+                    }
+                    out.force(true);
+                }
+                // Временный файл создан с правами 0600 - документ сохраняет свои
+                try {
+                    Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(path));
+                } catch (UnsupportedOperationException e) {
+                    // права доступа остаются по умолчанию
+                }
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            release();
+            reopen();
+            BYTES_WRITTEN.add(snapshot.size());
+            SAVE_TIME.recordSince(started);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Сжатый документ не закрывается явно: снимки и история правок ещё читают из него блоки
+    private void release() throws IOException {
+        if (!(original instanceof CompressedDocument)) original.close();
+    }
+
+    private static long size(Node node) {
+        return node == null ? 0 : node.total;
+    }
+
+    private static Node leaf(ByteSource source, long start, long length) {
+        return new Node(source, start, length, null, null, ThreadLocalRandom.current().nextInt());
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) return a.with(a.left, merge(a.right, b));
+        return b.with(merge(a, b.left), b.right);
+    }
+
+    // Делит дерево на [0, pos) и [pos, size); кусок на границе разрезается
+    private static Node[] split(Node node, long pos) {
+        if (node == null) return new Node[]{null, null};
+        long leftSize = size(node.left);
+        if (pos <= leftSize) {
+            Node[] parts = split(node.left, pos);
+            return new Node[]{parts[0], node.with(parts[1], node.right)};
+        }
+        long inPiece = pos - leftSize;
+        if (inPiece < node.length) {
+            Node head = new Node(node.source, node.start, inPiece, node.left, null, node.priority);
+            Node tail = merge(leaf(node.source, node.start + inPiece, node.length - inPiece), node.right);
+            return new Node[]{head, tail};
+        }
+        Node[] parts = split(node.right, pos - leftSize - node.length);
+        return new Node[]{node.with(node.left, parts[0]), parts[1]};
+    }
+
+    private static void read(Node node, long pos, byte[] dst, int off, int len) {
+        while (node != null && len > 0) {
+            long leftSize = size(node.left);
+            if (pos < leftSize) {
+                int fromLeft = (int) Math.min(len, leftSize - pos);
+                read(node.left, pos, dst, off, fromLeft);
+                pos += fromLeft;
+                off += fromLeft;
+                len -= fromLeft;
+                if (len == 0) return;
+            }
+            long inPiece = pos - leftSize;
+            if (inPiece < node.length) {
+                int fromPiece = (int) Math.min(len, node.length - inPiece);
+                node.source.get(node.start + inPiece, dst, off, fromPiece);
+                pos += fromPiece;
+                off += fromPiece;
+                len -= fromPiece;
+            }
+            pos -= leftSize + node.length;
+            node = node.right;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package TextDocumentCollection;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+// Кэш декодированных страниц и результатов поиска с вытеснением давно не использованных
+// записей по суммарному весу в байтах. Ключ содержит размер и время изменения файла,
+// поэтому после изменения документа старые записи не находятся и со временем вытесняются.
+// Кэшируется только содержимое, совпадающее с файлом на диске.
+public class DocumentCache {
+    public static final long DEFAULT_CAPACITY = 64L << 20;
+    private static final long ENTRY_OVERHEAD = 64;
+    private static final Metrics.Counter BYTES_READ = Metrics.counter("bytes_read", "Прочитано байтов документов");
+    // Счётчики за всё время работы; stats() - по этому кэшу с момента создания
+    private static final Metrics.Counter HITS = Metrics.counter("cache_hits", "Попадания в кэш документов");
+    private static final Metrics.Counter MISSES = Metrics.counter("cache_misses", "Промахи кэша документов");
+    private static final Metrics.Counter EVICTIONS = Metrics.counter("cache_evictions", "Вытеснения из кэша документов");
+
+    public record Key(Path path, long size, long modified, Object detail) {
+    }
+
+    // Виды кэшируемых данных (поле detail ключа)
+    public record Page(long start, long end) {
+    }
+
+    public record Search(List<String> patterns, PatternSearcher.Options options) {
+    }
+
+    public record Query(String query) {
+    }
+
+    public record Stats(long hits, long misses, long evictions, int entries, long weight, long capacity) {
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    private record Entry(Object value, long weight) {
+    }
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long capacity;
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public DocumentCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    // null, если версия документа неизвестна (несохранённые правки) - такое не кэшируется
+    public static Key key(Path path, DocumentMetadata version, Object detail) {
+        return version == null ? null : new Key(path, version.size(), version.modified(), detail);
+    }
+
+    // Значение вычисляется вне блокировки: одновременные промахи по одному ключу
+    // посчитают его дважды, но не задержат остальные обращения к кэшу
+    public <V> V get(Key key, Supplier<V> loader, ToLongFunction<V> weigher) {
+        if (key == null) return loader.get();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                HITS.increment();
+                @SuppressWarnings("unchecked")
+                V value = (V) entry.value();
+                return value;
+            }
+            misses++;
+            MISSES.increment();
+        }
+        V value = loader.get();
+        put(key, value, weigher.applyAsLong(value) + ENTRY_OVERHEAD);
+        return value;
+    }
+
+    private synchronized void put(Key key, Object value, long valueWeight) {
+        if (valueWeight > capacity) return;
+        Entry previous = entries.put(key, new Entry(value, valueWeight));
+        if (previous != null) weight -= previous.weight();
+        weight += valueWeight;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (weight > capacity && it.hasNext()) {
+            weight -= it.next().weight();
+            it.remove();
+            evictions++;
+            EVICTIONS.increment();
+        }
+    }
+
+    // Поиск по содержимому документа; результат для сохранённой версии берётся из кэша
+    public List<PatternSearcher.Match> findAll(Path path, DocumentMetadata version, ByteSource source,
+                                               List<String> patterns, PatternSearcher.Options options) {
+        Key key = key(path, version, new Search(List.copyOf(patterns), options));
+        return get(key, () -> List.copyOf(PatternSearcher.compile(patterns, options).findAll(source)),
+                matches -> weightOfList(matches, 32));
+    }
+
+    // Запрос по коллекции; версией служит поколение индекса, а не атрибуты файла
+    public List<SearchIndex.RankedDocument> search(Path root, SearchIndex index, String query) {
+        Key key = new Key(root, -1, index.getGeneration(), new Query(query));
+        return get(key, () -> index.search(query), ranked -> {
+            long hits = ranked.stream().mapToLong(d -> d.hits().size()).sum();
+            return weightOfList(ranked, 48) + hits * 48;
+        });
+    }
+
+    public String page(Path path, DocumentMetadata version, ByteSource source, long start, long end) {
+        return get(key(path, version, new Page(start, end)), () -> {
+            BYTES_READ.add(end - start);
+            return source.decode(start, end);
+        }, DocumentCache::weightOf);
+    }
+
+    public synchronized void invalidate(Path path) {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> e = it.next();
+            if (path.equals(e.getKey().path())) {
+                weight -= e.getValue().weight();
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        evict();
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, entries.size(), weight, capacity);
+    }
+
+    // Приблизительные размеры значений в куче
+    public static long weightOf(String text) {
+        return 40 + 2L * text.length();
+    }
+
+    public static long weightOfList(List<?> list, long elementWeight) {
+        return 24 + list.size() * (elementWeight + 8);
+    }
+}
@@ -1,17 +1,22 @@
 package TextDocumentCollection;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.stream.*;
 
 public class DocumentEditor {
     private DocumentManager documentManager;
     private Scanner scanner;
-    private List<Integer> searchResults;
+    private List<PatternSearcher.Match> searchResults;
     private int currentSearchIndex;
     private final int LINE_LENGTH = 200;
+    private static final int CONTEXT_BYTES = 100;
+    private static final Metrics.Timer REPLACE_TIME = Metrics.timer("replace_apply", "Применение замен к буферу");
 
     public DocumentEditor(DocumentManager documentManager, Scanner scanner) {
         this.documentManager = documentManager;
@@ -36,13 +41,44 @@ public class DocumentEditor {
             content.append(line).append("\n");
         }
 
-        Files.writeString(newDoc, content.toString());
+        try {
+            // Документ с тем же именем мог появиться, пока вводилось содержимое
+            Files.writeString(newDoc, content.toString(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (FileAlreadyExistsException e) {
+            System.out.println("Документ с таким именем уже существует");
+            return;
+        }
         System.out.println("Документ создан: " + docName);
-        documentManager.getDocuments().add(newDoc);
+        documentManager.applyChanges(Set.of(newDoc), Set.of());
+    }
+
+    // Массовый импорт: документы попадают в коллекцию и её индексы группами по мере сброса на диск
+    public void importDocuments() throws IOException, InterruptedException {
+        System.out.print("Введите путь к файлу JSON Lines или zip-архиву: ");
+        Path input = Paths.get(scanner.nextLine().trim());
+        if (!Files.isRegularFile(input)) {
+            System.out.println("Файл не найден: " + input);
+            return;
+        }
+
+        BulkImporter importer = new BulkImporter(documentManager.getRootDirectory(),
+                Runtime.getRuntime().availableProcessors(), BulkImporter.DEFAULT_GROUP_SIZE,
+                group -> documentManager.applyChanges(new HashSet<>(group), Set.of()), System.out);
+        BulkImporter.Result result;
+        try (InputStream in = Files.newInputStream(input)) {
+            result = input.getFileName().toString().toLowerCase().endsWith(".zip")
+                    ? importer.importZip(in)
+                    : importer.importJsonLines(in);
+        }
+        System.out.printf("Импортировано документов: %d за %.1f с (%.0f док/с, %.1f МБ/с)%n",
+                result.imported(), result.seconds(), result.documentsPerSecond(), result.megabytesPerSecond());
+        if (result.skipped() > 0) System.out.println("Пропущено существующих документов: " + result.skipped());
+        if (result.failed() > 0) System.out.println("Не удалось импортировать: " + result.failed());
     }
 
+    // Замены вносятся в общий буфер документа и попадают на диск только при сохранении
     public void replaceInDocument() throws IOException {
-        Path currentDocument = documentManager.getCurrentDocument();
+        DocumentBuffer buffer = documentManager.getCurrentBuffer();
 
         System.out.print("Введите текст для поиска: ");
         String searchText = scanner.nextLine();
@@ -53,44 +89,43 @@ public class DocumentEditor {
         System.out.print("Заменить все вхождения? (y/n): ");
         boolean replaceAll = scanner.nextLine().trim().equalsIgnoreCase("y");
 
-        String content = Files.readString(currentDocument);
-        boolean changed = false;
+        if (searchText.isEmpty()) {
+            System.out.println("Текст для поиска не может быть пустым");
+            return;
+        }
 
-        if (replaceAll) {
-            if (content.contains(searchText)) {
-                content = content.replace(searchText, replaceText);
-                changed = true;
-            }
+        DocumentBuffer.Snapshot snapshot = buffer.snapshot();
+        if (!TextEncoding.canEncode(replaceText, snapshot.charset())) {
+            System.out.println("Текст для замены содержит символы, которых нет в кодировке документа " +
+                    snapshot.charset().name());
+            return;
+        }
+        byte[] replaceBytes = TextEncoding.encode(replaceText, snapshot.charset());
+        searchResults = PatternSearcher.nonOverlapping(documentManager.getCache().findAll(buffer.getPath(),
+                buffer.getSavedMetadata(), snapshot, List.of(searchText), PatternSearcher.Options.DEFAULT));
 
-            if (changed) {
-                Files.writeString(currentDocument, content);
-                System.out.println("Заменено все вхождения");
-            } else {
-                System.out.println("Текст для замены не найден");
-            }
-        } else {
-            searchResults = new ArrayList<>();
-            int index = content.indexOf(searchText);
-            while (index >= 0) {
-                searchResults.add(index);
-                index = content.indexOf(searchText, index + 1);
-            }
+        if (searchResults.isEmpty()) {
+            System.out.println("Текст для замены не найден");
+            return;
+        }
 
-            if (searchResults.isEmpty()) {
-                System.out.println("Текст для замены не найден");
-                return;
+        // Принятые замены копятся списком правок и применяются одним шагом в конце,
+        // поэтому смещения остальных совпадений пересчитывать не нужно
+        List<DocumentBuffer.Edit> edits = new ArrayList<>();
+        if (replaceAll) {
+            for (PatternSearcher.Match match : searchResults) {
+                edits.add(toEdit(match, replaceBytes));
             }
-
+        } else {
             currentSearchIndex = 0;
             while (currentSearchIndex < searchResults.size()) {
-                int startIndex = searchResults.get(currentSearchIndex);
-                int endIndex = startIndex + searchText.length();
-
-                int contextStart = Math.max(0, startIndex - 50);
-                int contextEnd = Math.min(content.length(), endIndex + 50);
-                String context = content.substring(contextStart, contextEnd);
-                String highlighted = context.replace(searchText,
-                        "\u001B[31m" + searchText + "\u001B[0m");
+                PatternSearcher.Match match = searchResults.get(currentSearchIndex);
+                long start = match.start();
+                long end = match.end();
+                long contextStart = snapshot.alignToChar(Math.max(0, start - CONTEXT_BYTES));
+                long contextEnd = snapshot.alignToChar(Math.min(snapshot.size(), end + CONTEXT_BYTES));
+                String highlighted = snapshot.decode(contextStart, start) +
+                        "\u001B[31m" + searchText + "\u001B[0m" + snapshot.decode(end, contextEnd);
 
                 System.out.println("\nСовпадение " + (currentSearchIndex + 1) + " из " + searchResults.size() + ":");
                 printWithLineLimit("..." + highlighted + "...");
@@ -98,18 +133,14 @@ public class DocumentEditor {
                 String cmd = scanner.nextLine().trim().toLowerCase();
 
                 if (cmd.equals("y")) {
-                    content = content.substring(0, startIndex) + replaceText +
-                            content.substring(endIndex);
-                    changed = true;
-                    searchResults = searchResults.stream()
-                            .map(i -> i >= endIndex ? i - searchText.length() + replaceText.length() : i)
-                            .collect(Collectors.toList());
+                    edits.add(toEdit(match, replaceBytes));
                     currentSearchIndex++;
                 } else if (cmd.equals("n")) {
                     currentSearchIndex++;
                 } else if (cmd.equals("a")) {
-                    content = content.replace(searchText, replaceText);
-                    changed = true;
+                    for (int i = currentSearchIndex; i < searchResults.size(); i++) {
+                        edits.add(toEdit(searchResults.get(i), replaceBytes));
+                    }
                     break;
                 } else if (cmd.equals("q")) {
                     break;
@@ -117,12 +148,72 @@ public class DocumentEditor {
                     System.out.println("Неизвестная команда");
                 }
             }
+        }
+
+        if (!edits.isEmpty()) {
+            long started = System.nanoTime();
+            buffer.apply(edits);
+            REPLACE_TIME.recordSince(started);
+            System.out.println("Заменено вхождений: " + edits.size() + " (изменения не сохранены)");
+        } else {
+            System.out.println("Изменения не выполнены");
+        }
+    }
+
+    private static DocumentBuffer.Edit toEdit(PatternSearcher.Match match, byte[] replacement) {
+        return new DocumentBuffer.Edit(match.start(), match.end() - match.start(), replacement);
+    }
 
-            if (changed) {
-                Files.writeString(currentDocument, content);
-                System.out.println("Изменения сохранены");
+    // false - документ изменён другим пользователем или программой, правки остались в буфере
+    public boolean saveDocument() throws IOException {
+        if (!documentManager.hasUnsavedChanges()) {
+            System.out.println("Несохранённых изменений нет");
+            return true;
+        }
+        try {
+            documentManager.saveCurrentBuffer();
+        } catch (ConcurrentModificationException e) {
+            System.out.println("Изменения не сохранены: " + e.getMessage());
+            return false;
+        }
+        System.out.println("Изменения сохранены");
+        return true;
+    }
+
+    public void undoEdit() throws IOException {
+        if (documentManager.getCurrentBuffer().undo()) {
+            System.out.println("Правка отменена");
+        } else {
+            System.out.println("Нечего отменять");
+        }
+    }
+
+    public void redoEdit() throws IOException {
+        if (documentManager.getCurrentBuffer().redo()) {
+            System.out.println("Правка повторена");
+        } else {
+            System.out.println("Нечего повторять");
+        }
+    }
+
+    // Спрашивает, что делать с несохранёнными правками; false - пользователь отменил действие
+    public boolean resolveUnsavedChanges() throws IOException {
+        if (!documentManager.hasUnsavedChanges()) return true;
+
+        Path document = documentManager.getBufferDocument();
+        while (true) {
+            System.out.print("Документ " + document.getFileName() +
+                    " содержит несохранённые изменения. Сохранить? (y/n/c - отмена): ");
+            String cmd = scanner.nextLine().trim().toLowerCase();
+            if (cmd.equals("y")) {
+                if (saveDocument()) return true;
+            } else if (cmd.equals("n")) {
+                documentManager.closeBuffer();
+                return true;
+            } else if (cmd.equals("c")) {
+                return false;
             } else {
-                System.out.println("Изменения не выполнены");
+                System.out.println("Неизвестная команда");
             }
         }
     }
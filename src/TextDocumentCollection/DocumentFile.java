@@ -0,0 +1,47 @@
+package TextDocumentCollection;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Файл документа, открытый для чтения с произвольным доступом: обычный текст
+// отображается в память, сжатый (.txtz) распаковывается поблочно по мере обращения
+public interface DocumentFile extends ByteSource, Closeable {
+
+    // Кодировка определяется по началу файла; если она уже известна (DocumentMetadata.charset), лучше open(path, charset)
+    static DocumentFile open(Path path) throws IOException {
+        return open(path, TextEncoding.detect(path));
+    }
+
+    static DocumentFile open(Path path, Charset charset) throws IOException {
+        return CompressedDocument.isCompressed(path)
+                ? CompressedDocument.open(path, charset)
+                : MappedDocument.open(path, charset);
+    }
+
+    // Текст документа потоком; закрытие потока закрывает и файл.
+    // Кодировка байтам не нужна, а её определение само читает файл через этот метод
+    static InputStream newInputStream(Path path) throws IOException {
+        if (!CompressedDocument.isCompressed(path)) return Files.newInputStream(path);
+        DocumentFile file = CompressedDocument.open(path, StandardCharsets.UTF_8);
+        return new FilterInputStream(file.newInputStream()) {
+            @Override
+            public void close() throws IOException {
+                file.close();
+            }
+        };
+    }
+
+    // Запись файла target в том же формате, что и document (target - обычно временный файл рядом)
+    static OutputStream newOutputStream(Path target, Path document) throws IOException {
+        return CompressedDocument.isCompressed(document)
+                ? CompressedDocument.newOutputStream(target, CompressedDocument.DEFAULT_BLOCK_SIZE)
+                : Files.newOutputStream(target);
+    }
+}
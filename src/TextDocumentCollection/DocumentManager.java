@@ -4,17 +4,46 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.*;
 
 public class DocumentManager {
+    private static final int PARALLEL_SORT_THRESHOLD = 8192;
+    // Документы без автора - в конце списка
+    public static final Comparator<DocumentMetadata> BY_AUTHOR = Comparator.comparing(DocumentMetadata::author,
+            Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER));
+
     private Path rootDirectory;
-    private List<Path> documents;
-    private Path currentDocument;
+    private final DocumentStore store = new DocumentStore();
+    private volatile Path currentDocument;
+    private DocumentScanner documentScanner;
+    private List<Path> directories = List.of();
+    private SearchIndex searchIndex;
+    private boolean searchIndexStale;
+    private CollectionStatistics statistics;
+    private boolean statisticsStale;
+    private DuplicateDetector duplicateDetector;
+    private boolean duplicatesStale;
+    private DocumentWatcher watcher;
+    // Снимок на диске отстаёт от текущего состояния коллекции
+    private volatile boolean snapshotDirty = true;
+    // Фоновая сверка документов из снимка; null - сверка не идёт или её результат уже не нужен
+    private volatile Thread snapshotVerifier;
+    private DocumentBuffer currentBuffer;
+    // Версия документа, с которой открыт буфер; сохранение поверх более новой версии отклоняется
+    private long currentBufferVersion = DocumentStore.NO_VERSION;
+    private final DocumentCache cache = new DocumentCache(Long.getLong("tdc.cache.mb", DocumentCache.DEFAULT_CAPACITY >> 20) << 20);
 
     public DocumentManager(Path rootDirectory) {
+        this(rootDirectory, new DocumentScanner(DocumentScanner.UNLIMITED_DEPTH, DocumentScanner.DEFAULT_PATTERNS));
+    }
+
+    public DocumentManager(Path rootDirectory, DocumentScanner documentScanner) {
         this.rootDirectory = rootDirectory;
-        this.documents = new ArrayList<>();
-        updateDocumentList();
+        this.documentScanner = documentScanner;
+        registerMetrics();
+        loadDocumentList();
+        startWatching();
     }
 
     public Path getRootDirectory() {
@@ -25,22 +54,182 @@ public class DocumentManager {
         if (!Files.exists(newRoot) || !Files.isDirectory(newRoot)) {
             throw new IOException("Указанный путь не существует или не является папкой");
         }
+        close();
         this.rootDirectory = newRoot;
-        updateDocumentList();
+        this.searchIndex = null;
+        this.statistics = null;
+        this.duplicateDetector = null;
+        cache.clear();
+        this.currentDocument = null;
+        loadDocumentList();
+        startWatching();
     }
 
-    public void updateDocumentList() {
+    private void registerMetrics() {
+        Metrics.gauge("documents", "Документов в коллекции", store::size);
+        Metrics.gauge("cache_bytes", "Занято кэшем документов, байт", () -> cache.stats().weight());
+    }
+
+    private void startWatching() {
         try {
-            documents = Files.walk(rootDirectory, 1)
-                    .filter(Files::isRegularFile)
-                    .filter(p -> p.toString().endsWith(".txt"))
-                    .collect(Collectors.toList());
-        } catch (IOException e) {
-            System.out.println("Ошибка при обновлении списка документов: " + e.getMessage());
+            watcher = DocumentWatcher.start(this, rootDirectory, directories);
+        } catch (IOException | UnsupportedOperationException e) {
+            System.out.println("Наблюдение за папкой недоступно: " + e.getMessage());
+        }
+    }
+
+    // Список документов берётся из снимка коллекции, если он есть; иначе - полный обход
+    private synchronized void loadDocumentList() {
+        CollectionSnapshot.Restored restored = Files.isDirectory(rootDirectory)
+                ? CollectionSnapshot.restore(rootDirectory, documentScanner) : null;
+        if (restored == null) {
+            updateDocumentList();
+            return;
+        }
+        store.restore(restored.documents());
+        directories = restored.directories();
+        searchIndexStale = true;
+        statisticsStale = true;
+        duplicatesStale = true;
+        snapshotDirty = restored.changed();
+        verifyInBackground(restored.unverified());
+    }
+
+    // Правка файла на месте не меняет время изменения его папки, поэтому документы из снимка
+    // сверяются с файлами уже после запуска; расхождения применяются как изменения от наблюдения
+    private void verifyInBackground(List<DocumentMetadata> documents) {
+        Thread thread = new Thread(() -> {
+            Thread self = Thread.currentThread();
+            Set<Path> changed = ConcurrentHashMap.newKeySet();
+            Set<Path> removed = ConcurrentHashMap.newKeySet();
+            documents.parallelStream().forEach(m -> {
+                if (snapshotVerifier != self) return;
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(m.path(), BasicFileAttributes.class);
+                    if (!attrs.isRegularFile()) {
+                        removed.add(m.path());
+                    } else if (attrs.size() != m.size() || attrs.lastModifiedTime().toMillis() != m.modified()) {
+                        changed.add(m.path());
+                    }
+                } catch (IOException e) {
+                    removed.add(m.path());
+                }
+            });
+            synchronized (this) {
+                if (snapshotVerifier != self) return;
+                snapshotVerifier = null;
+                if (!changed.isEmpty() || !removed.isEmpty()) applyChanges(changed, removed);
+            }
+        }, "snapshot-verifier");
+        thread.setDaemon(true);
+        snapshotVerifier = thread;
+        thread.start();
+    }
+
+    public synchronized void updateDocumentList() {
+        if (!Files.isDirectory(rootDirectory)) {
+            System.out.println("Ошибка при обновлении списка документов: папка недоступна " + rootDirectory);
+            return;
+        }
+        DocumentScanner.ScanResult result = documentScanner.scan(rootDirectory);
+        store.replaceAll(result.documents());
+        directories = result.directories();
+        searchIndexStale = true;
+        statisticsStale = true;
+        duplicatesStale = true;
+        snapshotDirty = true;
+        snapshotVerifier = null;
+    }
+
+    // Папки, созданные во время работы (от DocumentWatcher), - чтобы они попали в снимок
+    public synchronized void addDirectories(List<Path> added) {
+        List<Path> updated = new ArrayList<>(directories);
+        updated.addAll(added);
+        directories = updated;
+        snapshotDirty = true;
+    }
+
+    public DocumentCache getCache() {
+        return cache;
+    }
+
+    public DocumentScanner getScanner() {
+        return documentScanner;
+    }
+
+    // Новые параметры сканирования требуют полного обхода и перерегистрации наблюдения
+    public void setScanner(DocumentScanner newScanner) throws IOException {
+        close();
+        this.documentScanner = newScanner;
+        loadDocumentList();
+        startWatching();
+    }
+
+    public DocumentStore getStore() {
+        return store;
+    }
+
+    public DocumentMetadata getMetadata(Path document) {
+        return store.metadata(document);
+    }
+
+    // Применяет пачку изменений от DocumentWatcher без повторного обхода папки
+    public synchronized void applyChanges(Set<Path> changed, Set<Path> removed) {
+        List<DocumentMetadata> changedMetadata = new ArrayList<>();
+        for (Path path : changed) {
+            if (!documentScanner.matches(rootDirectory, path) || !documentScanner.withinDepth(rootDirectory, path)) {
+                continue;
+            }
+            try {
+                BasicFileAttributes attrs = DocumentMetadata.readAttributes(path);
+                if (attrs.isRegularFile()) changedMetadata.add(DocumentMetadata.of(path, attrs));
+            } catch (IOException e) {
+                // Файл успел исчезнуть - его удаление придёт следующим событием
+            }
+        }
+
+        // Удалённая папка уносит с собой все документы внутри неё
+        Set<Path> removedDocuments = new HashSet<>();
+        for (Path path : removed) {
+            if (store.metadata(path) != null) {
+                removedDocuments.add(path);
+            } else {
+                for (Path document : store.documents()) {
+                    if (document.startsWith(path)) removedDocuments.add(document);
+                }
+            }
+        }
+
+        store.update(changedMetadata, removedDocuments);
+        snapshotDirty = true;
+        removedDocuments.forEach(cache::invalidate);
+        changedMetadata.forEach(m -> cache.invalidate(m.path()));
+
+        if (currentDocument != null && removedDocuments.contains(currentDocument)) {
+            currentDocument = null;
+            closeBufferQuietly();
+        }
+        // Документ изменён извне: несохранённых правок нет, буфер просто откроется заново
+        if (currentBuffer != null && !currentBuffer.isModified()) {
+            DocumentMetadata opened = currentBuffer.getFileMetadata();
+            DocumentMetadata actual = store.metadata(currentBuffer.getPath());
+            if (actual != null && (actual.size() != opened.size() || actual.modified() != opened.modified())) {
+                closeBufferQuietly();
+            }
+        }
+        if (statistics != null && !statisticsStale) {
+            statistics.applyChanges(changedMetadata, removedDocuments);
+        }
+        if (searchIndex != null && !searchIndexStale) {
+            searchIndex.applyChanges(changedMetadata, removedDocuments);
+        }
+        if (duplicateDetector != null && !duplicatesStale) {
+            duplicateDetector.applyChanges(changedMetadata, removedDocuments);
         }
     }
 
     public void listDocuments() {
+        List<Path> documents = store.documents();
         if (documents.isEmpty()) {
             System.out.println("В коллекции нет документов.");
             return;
@@ -48,10 +237,11 @@ public class DocumentManager {
 
         System.out.println("\nКоллекция документов (" + rootDirectory + "):");
         IntStream.range(0, documents.size())
-                .forEach(i -> System.out.println((i + 1) + ". " + documents.get(i).getFileName()));
+                .forEach(i -> System.out.println((i + 1) + ". " + rootDirectory.relativize(documents.get(i))));
     }
 
     public Path getDocument(int index) {
+        List<Path> documents = store.documents();
         if (index < 0 || index >= documents.size()) {
             throw new IndexOutOfBoundsException("Неверный номер документа");
         }
@@ -66,8 +256,125 @@ public class DocumentManager {
         return currentDocument;
     }
 
+    // Неизменяемый снимок списка: его можно обходить, пока коллекция меняется
     public List<Path> getDocuments() {
-        return documents;
+        return store.documents();
+    }
+
+    // Буфер редактирования текущего документа, общий для просмотра и правки
+    public synchronized DocumentBuffer getCurrentBuffer() throws IOException {
+        Path document = getCurrentDocument();
+        if (currentBuffer == null || !currentBuffer.getPath().equals(document)) {
+            closeBuffer();
+            DocumentStore.Versioned<DocumentBuffer> opened = store.read(document, () -> DocumentBuffer.open(document));
+            currentBuffer = opened.value();
+            currentBufferVersion = opened.version();
+        }
+        return currentBuffer;
+    }
+
+    // Сохраняет буфер, если документ не менялся с момента открытия; иначе ConcurrentModificationException
+    public synchronized void saveCurrentBuffer() throws IOException {
+        DocumentBuffer buffer = getCurrentBuffer();
+        currentBufferVersion = store.write(buffer.getPath(), currentBufferVersion, buffer::save);
+        applyChanges(Set.of(buffer.getPath()), Set.of());
+    }
+
+    public synchronized boolean hasUnsavedChanges() {
+        return currentBuffer != null && currentBuffer.isModified();
+    }
+
+    public synchronized Path getBufferDocument() {
+        return currentBuffer == null ? null : currentBuffer.getPath();
+    }
+
+    public synchronized void closeBuffer() throws IOException {
+        if (currentBuffer != null) {
+            currentBuffer.close();
+            currentBuffer = null;
+            currentBufferVersion = DocumentStore.NO_VERSION;
+        }
+    }
+
+    private void closeBufferQuietly() {
+        try {
+            closeBuffer();
+        } catch (IOException e) {
+            System.err.println("Ошибка при закрытии документа: " + e.getMessage());
+        }
+    }
+
+    public synchronized SearchIndex getSearchIndex() throws IOException {
+        if (searchIndex == null) {
+            System.out.println("Загрузка индекса коллекции...");
+            searchIndex = SearchIndex.open(rootDirectory, store.allMetadata());
+            searchIndexStale = false;
+        } else if (searchIndexStale) {
+            if (searchIndex.synchronize(store.allMetadata())) {
+                searchIndex.save();
+            }
+            searchIndexStale = false;
+        }
+        return searchIndex;
+    }
+
+    // Сводка считается при первом запросе, затем обновляется по изменённым документам
+    public synchronized CollectionStatistics getStatistics() {
+        if (statistics == null) {
+            System.out.println("Подсчёт статистики коллекции...");
+            statistics = CollectionStatistics.compute(store.allMetadata());
+        } else if (statisticsStale) {
+            statistics.synchronize(store.allMetadata());
+        }
+        statisticsStale = false;
+        return statistics;
+    }
+
+    public synchronized DuplicateDetector getDuplicateDetector() throws IOException {
+        if (duplicateDetector == null) {
+            System.out.println("Загрузка подписей документов...");
+            duplicateDetector = DuplicateDetector.open(rootDirectory, store.allMetadata(), System.out);
+        } else if (duplicatesStale) {
+            if (duplicateDetector.synchronize(store.allMetadata())) {
+                duplicateDetector.save();
+            }
+        }
+        duplicatesStale = false;
+        return duplicateDetector;
+    }
+
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+        synchronized (this) {
+            closeBuffer();
+            if (searchIndex != null && !searchIndexStale) {
+                searchIndex.saveIfDirty();
+            }
+            if (duplicateDetector != null && !duplicatesStale) {
+                duplicateDetector.saveIfDirty();
+            }
+            snapshotVerifier = null;
+            saveSnapshot();
+        }
+    }
+
+    // Снимок - только ускорение запуска: ошибка записи не мешает закрыть коллекцию
+    private void saveSnapshot() {
+        if (!snapshotDirty || !Files.isDirectory(rootDirectory)) return;
+        List<DocumentMetadata> documents = new ArrayList<>(store.size());
+        for (Path path : store.documents()) {
+            DocumentMetadata m = store.metadata(path);
+            if (m != null) documents.add(m);
+        }
+        try {
+            CollectionSnapshot.save(rootDirectory, documentScanner, documents, directories);
+            snapshotDirty = false;
+        } catch (IOException e) {
+            System.out.println("Не удалось сохранить снимок коллекции: " + e.getMessage());
+        }
     }
 
     public void showDocumentProperties() throws IOException {
@@ -77,9 +384,20 @@ public class DocumentManager {
         }
 
         BasicFileAttributes attrs = Files.readAttributes(currentDocument, BasicFileAttributes.class);
+        DocumentMetadata m = store.metadata(currentDocument);
+        if (m == null) m = DocumentMetadata.read(currentDocument);
+        String author = m.author();
         System.out.println("\nСвойства документа:");
         System.out.println("Имя: " + currentDocument.getFileName());
+        System.out.println("Автор: " + (author != null ? author : "не указан"));
         System.out.println("Размер: " + attrs.size() + " байт");
+        System.out.println("Кодировка: " + m.charset().name());
+        if (CompressedDocument.isCompressed(currentDocument)) {
+            try (CompressedDocument document = CompressedDocument.open(currentDocument, m.charset())) {
+                System.out.println("Размер текста: " + document.size() + " байт (сжатый формат, блоков: " +
+                        document.blockCount() + ")");
+            }
+        }
         System.out.println("Дата создания: " + attrs.creationTime());
         System.out.println("Дата изменения: " + attrs.lastModifiedTime());
     }
@@ -90,42 +408,37 @@ public class DocumentManager {
         System.out.println("1. Имени");
         System.out.println("2. Размеру");
         System.out.println("3. Дате создания");
-        System.out.println("4. Автору (не реализовано)");
+        System.out.println("4. Автору");
+        System.out.println("5. Автору, затем дате изменения");
         System.out.print("Выберите критерий: ");
         String choice = scanner.nextLine();
 
-        Comparator<Path> comparator = null;
+        // Все ключи берутся из кэша метаданных - сортировка не обращается к диску
+        Comparator<DocumentMetadata> comparator = null;
         switch (choice) {
             case "1":
-                comparator = Comparator.comparing(Path::getFileName);
+                comparator = Comparator.comparing(m -> m.path().getFileName());
                 break;
             case "2":
-                comparator = Comparator.comparing(p -> {
-                    try {
-                        return Files.size(p);
-                    } catch (IOException e) {
-                        return 0L;
-                    }
-                });
+                comparator = Comparator.comparingLong(DocumentMetadata::size);
                 break;
             case "3":
-                comparator = Comparator.comparing(p -> {
-                    try {
-                        return Files.readAttributes(p, BasicFileAttributes.class).creationTime();
-                    } catch (IOException e) {
-                        return FileTime.fromMillis(0);
-                    }
-                });
+                comparator = Comparator.comparingLong(DocumentMetadata::created);
                 break;
             case "4":
-                System.out.println("Сортировка по автору не реализована");
-                return;
+                comparator = BY_AUTHOR;
+                break;
+            case "5":
+                comparator = BY_AUTHOR.thenComparingLong(DocumentMetadata::modified);
+                break;
             default:
                 System.out.println("Неверный выбор");
                 return;
         }
 
-        documents.sort(comparator);
+        // Метаданные выбираются из кэша один раз, а не при каждом сравнении
+        store.sort(comparator, store.size() >= PARALLEL_SORT_THRESHOLD);
+        snapshotDirty = true;
         System.out.println("Коллекция отсортирована");
         listDocuments();
     }
@@ -0,0 +1,87 @@
+package TextDocumentCollection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Атрибуты документа, прочитанные один раз при сканировании (время - в миллисекундах).
+// Автор берётся из заголовка в начале файла, а если его нет - из владельца файла; null - неизвестен.
+// Кодировка определяется по тому же началу файла (см. TextEncoding).
+public record DocumentMetadata(Path path, long size, long created, long modified, String author, Charset charset) {
+    private static final Pattern AUTHOR_LINE = Pattern.compile("\\s*(?:author|автор)\\s*:\\s*(.*?)\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    private static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+    public static DocumentMetadata of(Path path, BasicFileAttributes attrs) {
+        byte[] head = attrs.isRegularFile() ? head(path) : new byte[0];
+        Charset charset = TextEncoding.detect(head, TextEncoding.SAMPLE_BYTES);
+        return new DocumentMetadata(path, attrs.size(), attrs.creationTime().toMillis(),
+                attrs.lastModifiedTime().toMillis(), author(path, attrs, head, charset), charset);
+    }
+
+    public static DocumentMetadata read(Path path) throws IOException {
+        return of(path, readAttributes(path));
+    }
+
+    // На POSIX владелец читается вместе с остальными атрибутами, одним обращением к файлу
+    public static BasicFileAttributes readAttributes(Path path) throws IOException {
+        if (POSIX && path.getFileSystem() == FileSystems.getDefault()) {
+            return Files.readAttributes(path, PosixFileAttributes.class);
+        }
+        return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+
+    private static byte[] head(Path path) {
+        try (InputStream in = DocumentFile.newInputStream(path)) {
+            return in.readNBytes(TextEncoding.SAMPLE_BYTES);
+        } catch (IOException e) {
+            return new byte[0];
+        }
+    }
+
+    private static String author(Path path, BasicFileAttributes attrs, byte[] head, Charset charset) {
+        if (!attrs.isRegularFile()) return null;
+        String author = headerAuthor(head, charset);
+        if (author != null) return author;
+        if (attrs instanceof PosixFileAttributes posix) return posix.owner().getName();
+        try {
+            return Files.getOwner(path).getName();
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    // Заголовок - первая строка вида "Автор: ..." / "Author: ..." или блок между строками "---"
+    static String headerAuthor(byte[] head, Charset charset) {
+        String text = new String(head, charset);
+        if (text.startsWith("\uFEFF")) text = text.substring(1);
+        String[] lines = text.split("\r?\n", -1);
+
+        if (!lines[0].strip().equals("---")) return authorFrom(lines[0]);
+        // последняя строка могла обрезаться на границе прочитанного блока
+        for (int i = 1; i < lines.length - 1; i++) {
+            if (lines[i].strip().equals("---")) break;
+            String author = authorFrom(lines[i]);
+            if (author != null) return author;
+        }
+        return null;
+    }
+
+    private static String authorFrom(String line) {
+        Matcher matcher = AUTHOR_LINE.matcher(line);
+        if (!matcher.matches()) return null;
+        String value = matcher.group(1);
+        if (value.length() >= 2 && (value.charAt(0) == '"' || value.charAt(0) == '\'') &&
+                value.charAt(value.length() - 1) == value.charAt(0)) {
+            value = value.substring(1, value.length() - 1);
+        }
+        return value.isEmpty() ? null : value;
+    }
+}
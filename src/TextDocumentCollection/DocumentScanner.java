@@ -0,0 +1,169 @@
+package TextDocumentCollection;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Параллельный рекурсивный обход коллекции на ForkJoinPool.
+// Атрибуты каждого файла читаются ровно один раз и сохраняются в DocumentMetadata;
+// там же, в тех же задачах, из заголовка файла или его владельца извлекается автор.
+public class DocumentScanner {
+    public static final int UNLIMITED_DEPTH = Integer.MAX_VALUE;
+    private static final int FILES_PER_TASK = 512;
+    private static final Metrics.Timer SCAN_TIME = Metrics.timer("scan", "Полный обход папок коллекции");
+    private static final Metrics.Counter FILES_SCANNED = Metrics.counter("files_scanned", "Найдено документов при обходе");
+
+    // Обычные и сжатые (CompressedDocument) текстовые документы
+    public static final List<String> DEFAULT_PATTERNS = List.of("*.txt", "*" + CompressedDocument.EXTENSION);
+
+    public record ScanResult(List<DocumentMetadata> documents, List<Path> directories) {
+    }
+
+    private final int maxDepth;
+    private final List<String> patterns;
+    private final List<PathMatcher> matchers;
+
+    public DocumentScanner(int maxDepth, List<String> patterns) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("Глубина сканирования должна быть не меньше 1");
+        }
+        this.maxDepth = maxDepth;
+        this.patterns = List.copyOf(patterns);
+        FileSystem fs = FileSystems.getDefault();
+        this.matchers = patterns.stream().map(p -> fs.getPathMatcher("glob:" + p)).toList();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public List<String> getPatterns() {
+        return patterns;
+    }
+
+    // Маска без '/' проверяется по имени файла, с '/' - по пути относительно корня
+    public boolean matches(Path root, Path file) {
+        Path name = file.getFileName();
+        Path relative = root.relativize(file);
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(name) || matcher.matches(relative)) return true;
+        }
+        return false;
+    }
+
+    public boolean withinDepth(Path root, Path path) {
+        return root.relativize(path).getNameCount() <= maxDepth;
+    }
+
+    public ScanResult scan(Path root) {
+        Queue<DocumentMetadata> documents = new ConcurrentLinkedQueue<>();
+        Queue<Path> directories = new ConcurrentLinkedQueue<>();
+        directories.add(root);
+        long started = System.nanoTime();
+        ForkJoinPool.commonPool().invoke(new DirectoryTask(root, root, 0, documents, directories));
+        SCAN_TIME.recordSince(started);
+        FILES_SCANNED.add(documents.size());
+        return new ScanResult(new ArrayList<>(documents), new ArrayList<>(directories));
+    }
+
+    // Обработка отдельных файлов и папок, найденных вне обхода (см. CollectionSnapshot):
+    // каждый путь разбирается так, как если бы он встретился при обходе своей папки
+    public ScanResult rescan(Path root, Collection<Path> entries) {
+        Queue<DocumentMetadata> documents = new ConcurrentLinkedQueue<>();
+        Queue<Path> directories = new ConcurrentLinkedQueue<>();
+        Map<Path, List<Path>> byParent = new HashMap<>();
+        for (Path entry : entries) byParent.computeIfAbsent(entry.getParent(), k -> new ArrayList<>()).add(entry);
+        List<EntriesTask> tasks = new ArrayList<>();
+        byParent.forEach((parent, children) -> {
+            int depth = root.relativize(parent).getNameCount();
+            for (int from = 0; from < children.size(); from += FILES_PER_TASK) {
+                List<Path> chunk = children.subList(from, Math.min(children.size(), from + FILES_PER_TASK));
+                tasks.add(new EntriesTask(root, depth, chunk, documents, directories));
+            }
+        });
+        // Вне пула задачи уходят в общий ForkJoinPool
+        ForkJoinTask.invokeAll(tasks);
+        FILES_SCANNED.add(documents.size());
+        return new ScanResult(new ArrayList<>(documents), new ArrayList<>(directories));
+    }
+
+    // Задачи пула не сериализуются
+    @SuppressWarnings("serial")
+    private class DirectoryTask extends RecursiveAction {
+        private final Path root;
+        private final Path directory;
+        private final int depth;
+        private final Queue<DocumentMetadata> documents;
+        private final Queue<Path> directories;
+
+        DirectoryTask(Path root, Path directory, int depth,
+                      Queue<DocumentMetadata> documents, Queue<Path> directories) {
+            this.root = root;
+            this.directory = directory;
+            this.depth = depth;
+            this.documents = documents;
+            this.directories = directories;
+        }
+
+        @Override
+        protected void compute() {
+            List<Path> entries = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                stream.forEach(entries::add);
+            } catch (IOException e) {
+                System.err.println("Не удалось прочитать папку " + directory + ": " + e.getMessage());
+                return;
+            }
+
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int from = 0; from < entries.size(); from += FILES_PER_TASK) {
+                List<Path> chunk = entries.subList(from, Math.min(entries.size(), from + FILES_PER_TASK));
+                tasks.add(new EntriesTask(root, depth, chunk, documents, directories));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    // Файлы и папки одного уровня: depth - глубина папки, в которой они лежат
+    @SuppressWarnings("serial")
+    private class EntriesTask extends RecursiveAction {
+        private final Path root;
+        private final int depth;
+        private final List<Path> entries;
+        private final Queue<DocumentMetadata> documents;
+        private final Queue<Path> directories;
+
+        EntriesTask(Path root, int depth, List<Path> entries,
+                    Queue<DocumentMetadata> documents, Queue<Path> directories) {
+            this.root = root;
+            this.depth = depth;
+            this.entries = entries;
+            this.documents = documents;
+            this.directories = directories;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            for (Path entry : entries) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = DocumentMetadata.readAttributes(entry);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    if (depth + 1 < maxDepth) {
+                        directories.add(entry);
+                        subdirectories.add(new DirectoryTask(root, entry, depth + 1, documents, directories));
+                    }
+                } else if (attrs.isRegularFile() && matches(root, entry)) {
+                    documents.add(DocumentMetadata.of(entry, attrs));
+                }
+            }
+            invokeAll(subdirectories);
+        }
+    }
+}
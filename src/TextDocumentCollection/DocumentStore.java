@@ -0,0 +1,184 @@
+package TextDocumentCollection;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+// Потокобезопасное хранилище сведений о документах коллекции.
+// Список документов неизменяемый и заменяется целиком (копирование при записи), поэтому его
+// чтение и обход никогда не ждут изменений. Каждая версия документа получает номер: запись
+// выполняется, только если документ не менялся с тех пор, как пишущий его прочитал, иначе -
+// ConcurrentModificationException. Сведения и номер документа публикуются вместе одной неизменяемой
+// записью, поэтому чтение блокировок не берёт и записи не ждёт; записи одного документа идут
+// по очереди под блокировкой, блокировки разбиты на полосы по хэшу пути.
+public class DocumentStore {
+    public static final long NO_VERSION = -1;
+    private static final int STRIPES = 64;
+
+    // Значение, прочитанное вместе с номером версии документа
+    public record Versioned<T>(T value, long version) {
+    }
+
+    @FunctionalInterface
+    public interface IOSupplier<T> {
+        T get() throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface IOAction {
+        void run() throws IOException;
+    }
+
+    private record Entry(DocumentMetadata metadata, long version) {
+    }
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    // Номера общие для всех документов: удалённый и созданный заново документ не повторит старый номер
+    private final AtomicLong versions = new AtomicLong();
+    private volatile List<Path> documents = List.of();
+
+    public DocumentStore() {
+        for (int i = 0; i < STRIPES; i++) locks[i] = new ReentrantLock();
+    }
+
+    private ReentrantLock lockFor(Path path) {
+        int h = path.hashCode() * 0x9E3779B9;
+        return locks[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    public List<Path> documents() {
+        return documents;
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    public DocumentMetadata metadata(Path path) {
+        Entry entry = entries.get(path);
+        return entry == null ? null : entry.metadata();
+    }
+
+    public Collection<DocumentMetadata> allMetadata() {
+        List<DocumentMetadata> result = new ArrayList<>(entries.size());
+        entries.values().forEach(e -> result.add(e.metadata()));
+        return result;
+    }
+
+    public long version(Path path) {
+        Entry entry = entries.get(path);
+        return entry == null ? NO_VERSION : entry.version();
+    }
+
+    // Полная замена содержимого после обхода папки; неизменившиеся документы сохраняют номер версии
+    public synchronized void replaceAll(Collection<DocumentMetadata> scanned) {
+        Set<Path> present = new HashSet<>();
+        for (DocumentMetadata m : scanned) {
+            present.add(m.path());
+            put(m);
+        }
+        entries.keySet().retainAll(present);
+        List<Path> sorted = new ArrayList<>(present);
+        Collections.sort(sorted);
+        documents = List.copyOf(sorted);
+    }
+
+    // Замена содержимого из снимка коллекции: порядок документов - как в снимке
+    public synchronized void restore(List<DocumentMetadata> ordered) {
+        Path[] paths = new Path[ordered.size()];
+        for (int i = 0; i < paths.length; i++) paths[i] = ordered.get(i).path();
+        if (entries.isEmpty()) {
+            // Обычный случай - запуск: номера версий выдаются одним блоком, без сравнения с прежними
+            long first = versions.getAndAdd(paths.length) + 1;
+            IntStream.range(0, paths.length).parallel()
+                    .forEach(i -> entries.put(paths[i], new Entry(ordered.get(i), first + i)));
+        } else {
+            entries.keySet().retainAll(new HashSet<>(Arrays.asList(paths)));
+            ordered.forEach(this::put);
+        }
+        documents = List.of(paths);
+    }
+
+    // Изменения от наблюдения за папкой: новые документы добавляются в конец, порядок остальных сохраняется
+    public synchronized void update(Collection<DocumentMetadata> changed, Set<Path> removed) {
+        List<Path> updated = new ArrayList<>(documents.size() + changed.size());
+        for (Path path : documents) {
+            if (!removed.contains(path)) updated.add(path);
+        }
+        for (DocumentMetadata m : changed) {
+            if (!entries.containsKey(m.path())) updated.add(m.path());
+        }
+        removed.forEach(entries::remove);
+        changed.forEach(this::put);
+        documents = List.copyOf(updated);
+    }
+
+    // Переупорядочивание не теряет изменений, пришедших во время сортировки
+    public synchronized void sort(Comparator<DocumentMetadata> comparator, boolean parallel) {
+        List<Path> current = documents;
+        DocumentMetadata[] sorted = new DocumentMetadata[current.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            DocumentMetadata m = metadata(current.get(i));
+            sorted[i] = m != null ? m : new DocumentMetadata(current.get(i), 0, 0, 0, null, StandardCharsets.UTF_8);
+        }
+        if (parallel) {
+            Arrays.parallelSort(sorted, comparator);
+        } else {
+            Arrays.sort(sorted, comparator);
+        }
+        List<Path> result = new ArrayList<>(sorted.length);
+        for (DocumentMetadata m : sorted) result.add(m.path());
+        documents = List.copyOf(result);
+    }
+
+    // Новый номер версии выдаётся, только если содержимое файла могло измениться
+    private long put(DocumentMetadata m) {
+        return entries.merge(m.path(), new Entry(m, versions.incrementAndGet()), (old, fresh) ->
+                sameContent(old.metadata(), m) ? new Entry(m, old.version()) : fresh).version();
+    }
+
+    private static boolean sameContent(DocumentMetadata a, DocumentMetadata b) {
+        return a.size() == b.size() && a.modified() == b.modified();
+    }
+
+    // Чтение файла с номером версии без блокировки. Номер берётся до чтения, а запись выдаёт новый
+    // номер только после того, как файл записан: содержимое может оказаться новее номера (тогда
+    // запись по этому номеру будет отклонена), но старое содержимое никогда не получит новый номер.
+    public <T> Versioned<T> read(Path path, IOSupplier<T> reader) throws IOException {
+        long version = version(path);
+        return new Versioned<>(reader.get(), version);
+    }
+
+    // Оптимистичная запись: action выполняется, только если текущая версия равна expectedVersion.
+    // Изменение файла извне, ещё не дошедшее от наблюдения, тоже считается новой версией.
+    // Возвращает номер версии после записи.
+    public long write(Path path, long expectedVersion, IOAction action) throws IOException {
+        ReentrantLock lock = lockFor(path);
+        lock.lock();
+        try {
+            Entry entry = entries.get(path);
+            if (entry == null) {
+                throw new ConcurrentModificationException("Документ " + path.getFileName() + " удалён из коллекции");
+            }
+            DocumentMetadata actual = DocumentMetadata.read(path);
+            long current = sameContent(entry.metadata(), actual) ? entry.version() : put(actual);
+            if (current != expectedVersion) {
+                throw new ConcurrentModificationException("Документ " + path.getFileName() +
+                        " изменён после открытия (версия " + expectedVersion + ", текущая " + current + ")");
+            }
+            action.run();
+            // размер и время изменения могут совпасть с прежними, поэтому номер выдаётся всегда
+            DocumentMetadata written = DocumentMetadata.read(path);
+            Entry updated = entries.computeIfPresent(path, (p, old) -> new Entry(written, versions.incrementAndGet()));
+            return updated == null ? NO_VERSION : updated.version();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -3,18 +3,19 @@ package TextDocumentCollection;
 import java.io.IOException;
 import java.nio.file.*;
 import java.util.*;
-import java.util.function.Consumer;
 import java.util.stream.*;
 
 public class DocumentViewer {
     private DocumentManager documentManager;
     private Scanner scanner;
-    private List<Integer> searchResults;
+    private List<SearchHit> searchResults;
     private int currentSearchIndex;
     private int pageSize = 2000; // В символах
-    private final int LINE_LENGTH = 200;
+    private static final int CONTEXT_BYTES = 100;
     private static final String OUTPUT_FILE = "output.txt";
+    private static final Metrics.Timer PAGE_TIME = Metrics.timer("page_show", "Чтение и вывод страницы");
     private boolean outputToFile = false;
+    private OutputSink output = OutputSink.console();
 
     public DocumentViewer(DocumentManager documentManager, Scanner scanner) {
         this.documentManager = documentManager;
@@ -35,39 +36,68 @@ public class DocumentViewer {
         Path document = documentManager.getDocument(docNumber);
         System.out.println("Открыт документ: " + document.getFileName());
 
-        String content = Files.readString(document);
-        paginateDocument(content, 0);
+        // Страницы читаются из снимка буфера: несохранённые правки видны без сборки всего текста
+        DocumentBuffer buffer = documentManager.getCurrentBuffer();
+        DocumentBuffer.Snapshot snapshot = buffer.snapshot();
+        DocumentMetadata fileMetadata = buffer.getSavedMetadata();
+        PageLayout layout = PageLayout.forDocument(document, fileMetadata, snapshot, pageSize);
+        try {
+            paginateDocument(new Viewed(document, fileMetadata, snapshot, layout), 0);
+        } finally {
+            // разметку изменённого текста больше никто не использует
+            if (fileMetadata == null) layout.cancel();
+        }
     }
 
-    private void paginateDocument(String content, int startChar) {
-        int totalChars = content.length();
-        int endChar = Math.min(startChar + pageSize, totalChars);
+    // Просматриваемый документ; fileMetadata == null - несохранённая версия, которая не кэшируется
+    private record Viewed(Path path, DocumentMetadata fileMetadata, ByteSource source, PageLayout layout) {
+    }
 
-        System.out.println("\n--- Страница (символы " + (startChar + 1) + "-" + endChar + " из " + totalChars + ") ---");
-        printWithLineLimit(content.substring(startChar, endChar));
+    // Соседние страницы готовятся в фоне (PageNavigator), листание показывает уже готовые
+    private void paginateDocument(Viewed document, int page) {
+        try (PageNavigator navigator = new PageNavigator(document.path(), document.fileMetadata(),
+                document.source(), document.layout(), documentManager.getCache())) {
+            paginate(navigator, page);
+        }
+    }
+
+    private void paginate(PageNavigator navigator, int page) {
+        PageLayout layout = navigator.getLayout();
+        showPage(navigator, page);
 
-        if (totalChars <= pageSize) return;
+        if (!layout.hasPage(1)) return;
 
         while (true) {
-            System.out.println("\nКоманды: n - следующая страница, p - предыдущая страница, q - выход");
+            System.out.println("\nКоманды: n - следующая страница, p - предыдущая страница, " +
+                    "g - перейти к странице, q - выход");
             System.out.print("Введите команду: ");
             String cmd = scanner.nextLine().trim().toLowerCase();
 
             if (cmd.equals("n")) {
-                if (endChar < totalChars) {
-                    paginateDocument(content, endChar);
+                if (layout.hasPage(page + 1)) {
+                    showPage(navigator, ++page);
                 } else {
                     System.out.println("Это последняя страница");
                 }
-                return;
             } else if (cmd.equals("p")) {
-                if (startChar > 0) {
-                    int newStart = Math.max(0, startChar - pageSize);
-                    paginateDocument(content, newStart);
+                if (page > 0) {
+                    showPage(navigator, --page);
                 } else {
                     System.out.println("Это первая страница");
                 }
-                return;
+            } else if (cmd.equals("g")) {
+                System.out.print("Введите номер страницы: ");
+                try {
+                    int target = Integer.parseInt(scanner.nextLine().trim()) - 1;
+                    if (layout.hasPage(target)) {
+                        page = target;
+                        showPage(navigator, page);
+                    } else {
+                        System.out.println("Страницы с таким номером нет");
+                    }
+                } catch (NumberFormatException e) {
+                    System.out.println("Неверный формат числа");
+                }
             } else if (cmd.equals("q")) {
                 return;
             } else {
@@ -76,52 +106,51 @@ public class DocumentViewer {
         }
     }
 
-    private void printWithLineLimit(String text) {
-        Consumer<String> output = outputToFile ?
-                line -> {
-                    try {
-                        Files.write(Paths.get(OUTPUT_FILE), (line + System.lineSeparator()).getBytes(),
-                                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-                    } catch (IOException e) {
-                        System.err.println("Ошибка записи в файл: " + e.getMessage());
-                    }
-                } :
-                System.out::println;
-
-        final int[] currentIndex = {0};
-
-        while (currentIndex[0] < text.length()) {
-            int end = Math.min(currentIndex[0] + LINE_LENGTH, text.length());
-            String line = text.substring(currentIndex[0], end);
-
-            if (end < text.length() && !Character.isWhitespace(text.charAt(end)) &&
-                    !Character.isWhitespace(text.charAt(end - 1))) {
-                int lastSpace = line.lastIndexOf(' ');
-                if (lastSpace > 0) {
-                    end = currentIndex[0] + lastSpace;
-                    line = text.substring(currentIndex[0], end);
-                }
-            }
+    private void showPage(PageNavigator navigator, int page) {
+        long started = System.nanoTime();
+        PageLayout layout = navigator.getLayout();
+        PageNavigator.RenderedPage rendered = navigator.show(page);
+        String pages = layout.knownPages() + (layout.isComplete() ? "" : "+");
+        System.out.println("\n--- Страница " + (page + 1) + " из " + pages + " (байты " + (rendered.start() + 1) + "-" +
+                rendered.end() + " из " + layout.getSize() + ") ---");
+        navigator.print(rendered, output);
+        PAGE_TIME.recordSince(started);
+    }
 
-            output.accept(line);
-            currentIndex[0] = end;
+    // Строки копятся в буфере приёмника и сбрасываются одним блоком в конце страницы.
+    // Перенос строк тот же, что и при разметке страниц (PageLayout.wrapEnd).
+    private void printWithLineLimit(String text) {
+        int pos = 0;
+        while (pos < text.length()) {
+            int end = PageLayout.wrapEnd(text, pos);
+            output.println(text, pos, end);
+            pos = end < text.length() && text.charAt(end) == '\n' ? end + 1 : end;
         }
+        output.flush();
     }
 
     public void searchInDocument() throws IOException {
-        Path currentDocument = documentManager.getCurrentDocument();
+        DocumentBuffer buffer = documentManager.getCurrentBuffer();
 
-        System.out.print("Введите текст для поиска: ");
+        System.out.print("Введите текст для поиска (несколько образцов - через \" | \"): ");
         String searchText = scanner.nextLine();
-
-        String content = Files.readString(currentDocument);
-
-        searchResults = new ArrayList<>();
-        int index = content.indexOf(searchText);
-        while (index >= 0) {
-            searchResults.add(index);
-            index = content.indexOf(searchText, index + 1);
+        if (searchText.isEmpty()) {
+            System.out.println("Текст для поиска не может быть пустым");
+            return;
         }
+        System.out.print("Параметры (i - без учёта регистра, w - целые слова, r - регулярное выражение): ");
+        PatternSearcher.Options options = PatternSearcher.Options.parse(scanner.nextLine());
+
+        List<String> patterns = options.regex() ? List.of(searchText) :
+                Arrays.stream(searchText.split(" \\| ")).filter(p -> !p.isEmpty()).distinct().toList();
+        // Повторный поиск по неизменённому документу берётся из кэша
+        DocumentBuffer.Snapshot snapshot = buffer.snapshot();
+        DocumentMetadata fileMetadata = buffer.getSavedMetadata();
+        List<PatternSearcher.Match> matches = documentManager.getCache()
+                .findAll(buffer.getPath(), fileMetadata, snapshot, patterns, options);
+        searchResults = matches.stream()
+                .map(m -> new SearchHit(buffer.getPath(), m.start(), m.end()))
+                .collect(Collectors.toList());
 
         currentSearchIndex = -1;
 
@@ -131,51 +160,118 @@ public class DocumentViewer {
         }
 
         System.out.println("Найдено совпадений: " + searchResults.size());
-        navigateSearchResults(content, searchText);
+        if (patterns.size() > 1) {
+            int[] counts = new int[patterns.size()];
+            matches.forEach(m -> counts[m.pattern()]++);
+            for (int i = 0; i < patterns.size(); i++) {
+                System.out.println("  " + patterns.get(i) + ": " + counts[i]);
+            }
+        }
+        navigateSearchResults(snapshot, fileMetadata);
     }
 
-    private void navigateSearchResults(String content, String searchText) {
-        while (true) {
-            System.out.println("\nКоманды: n - следующее совпадение, p - предыдущее совпадение, q - выход");
-            System.out.print("Введите команду: ");
-            String cmd = scanner.nextLine().trim().toLowerCase();
+    public void searchInCollection() throws IOException {
+        System.out.print("Введите запрос (фразы - в кавычках): ");
+        String query = scanner.nextLine();
 
-            if (cmd.equals("n")) {
-                if (currentSearchIndex < searchResults.size() - 1) {
-                    currentSearchIndex++;
-                    showSearchResult(content, searchText, currentSearchIndex);
+        List<SearchIndex.RankedDocument> ranked = documentManager.getCache()
+                .search(documentManager.getRootDirectory(), documentManager.getSearchIndex(), query);
+        if (ranked.isEmpty()) {
+            System.out.println("Ничего не найдено");
+            return;
+        }
+
+        System.out.println("Найдено документов: " + ranked.size());
+        for (int i = 0; i < Math.min(10, ranked.size()); i++) {
+            SearchIndex.RankedDocument doc = ranked.get(i);
+            System.out.printf("%d. %s (совпадений: %d, релевантность: %.2f)%n",
+                    i + 1, doc.document().getFileName(), doc.hits().size(), doc.score());
+        }
+
+        searchResults = ranked.stream()
+                .flatMap(doc -> doc.hits().stream())
+                .collect(Collectors.toList());
+        currentSearchIndex = -1;
+        System.out.println("Всего совпадений: " + searchResults.size());
+        navigateSearchResults(null, null);
+    }
+
+    // source == null: совпадения из разных документов, каждый читается с диска
+    private void navigateSearchResults(ByteSource source, DocumentMetadata sourceMetadata) throws IOException {
+        ByteSource document = source;
+        DocumentMetadata metadata = sourceMetadata;
+        DocumentFile mapped = null;
+        try {
+            while (true) {
+                System.out.println("\nКоманды: n - следующее совпадение, p - предыдущее совпадение, " +
+                        "s - страница с совпадением, q - выход");
+                System.out.print("Введите команду: ");
+                String cmd = scanner.nextLine().trim().toLowerCase();
+
+                int next;
+                if (cmd.equals("n")) {
+                    if (currentSearchIndex >= searchResults.size() - 1) {
+                        System.out.println("Это последнее совпадение");
+                        continue;
+                    }
+                    next = currentSearchIndex + 1;
+                } else if (cmd.equals("p")) {
+                    if (currentSearchIndex <= 0) {
+                        System.out.println("Это первое совпадение");
+                        continue;
+                    }
+                    next = currentSearchIndex - 1;
+                } else if (cmd.equals("s")) {
+                    if (currentSearchIndex < 0) {
+                        System.out.println("Сначала перейдите к совпадению");
+                        continue;
+                    }
+                    SearchHit hit = searchResults.get(currentSearchIndex);
+                    PageLayout layout = PageLayout.forDocument(hit.document(), metadata, document, pageSize);
+                    try {
+                        paginateDocument(new Viewed(hit.document(), metadata, document, layout),
+                                layout.pageOf(hit.start()));
+                    } finally {
+                        if (metadata == null) layout.cancel();
+                    }
+                    continue;
+                } else if (cmd.equals("q")) {
+                    return;
                 } else {
-                    System.out.println("Это последнее совпадение");
+                    System.out.println("Неизвестная команда");
+                    continue;
                 }
-            } else if (cmd.equals("p")) {
-                if (currentSearchIndex > 0) {
-                    currentSearchIndex--;
-                    showSearchResult(content, searchText, currentSearchIndex);
-                } else {
-                    System.out.println("Это первое совпадение");
+
+                // Переход между документами переоткрывает отображение только при смене документа
+                Path path = searchResults.get(next).document();
+                if (source == null &&
+                        (currentSearchIndex < 0 || !searchResults.get(currentSearchIndex).document().equals(path))) {
+                    if (mapped != null) mapped.close();
+                    metadata = DocumentMetadata.read(path);
+                    mapped = DocumentFile.open(path, metadata.charset());
+                    document = mapped;
+                    System.out.println("\nДокумент: " + path.getFileName());
                 }
-            } else if (cmd.equals("q")) {
-                return;
-            } else {
-                System.out.println("Неизвестная команда");
+                currentSearchIndex = next;
+                showSearchResult(document, currentSearchIndex);
             }
+        } finally {
+            if (mapped != null) mapped.close();
         }
     }
 
-    private void showSearchResult(String content, String searchText, int resultIndex) {
-        int startIndex = searchResults.get(resultIndex);
-        int endIndex = startIndex + searchText.length();
-
-        int contextStart = Math.max(0, startIndex - 50);
-        int contextEnd = Math.min(content.length(), endIndex + 50);
+    private void showSearchResult(ByteSource document, int resultIndex) {
+        SearchHit hit = searchResults.get(resultIndex);
 
-        String context = content.substring(contextStart, contextEnd);
+        long contextStart = document.alignToChar(Math.max(0, hit.start() - CONTEXT_BYTES));
+        long contextEnd = document.alignToChar(Math.min(document.size(), hit.end() + CONTEXT_BYTES));
 
-        String highlighted = context.replace(searchText,
-                "\u001B[31m" + searchText + "\u001B[0m");
+        String highlighted = document.decode(contextStart, hit.start()) +
+                "\u001B[31m" + document.decode(hit.start(), hit.end()) + "\u001B[0m" +
+                document.decode(hit.end(), contextEnd);
 
         System.out.println("\nСовпадение " + (resultIndex + 1) + " из " + searchResults.size() +
-                " (позиция " + (startIndex + 1) + "-" + endIndex + "):");
+                " (байты " + (hit.start() + 1) + "-" + hit.end() + "):");
         printWithLineLimit("..." + highlighted + "...");
     }
 
@@ -194,8 +290,29 @@ public class DocumentViewer {
         }
     }
 
+    // Файл открывается один раз и остаётся открытым до смены режима или выхода
     public void setOutputMode(boolean toFile) {
+        OutputSink sink;
+        if (toFile) {
+            System.out.print("Асинхронная запись в фоновом потоке? (y/n): ");
+            boolean async = scanner.nextLine().trim().equalsIgnoreCase("y");
+            try {
+                sink = OutputSink.file(Paths.get(OUTPUT_FILE));
+            } catch (IOException e) {
+                System.err.println("Ошибка открытия файла: " + e.getMessage());
+                return;
+            }
+            if (async) sink = new AsyncOutputSink(sink);
+        } else {
+            sink = OutputSink.console();
+        }
+        output.close();
+        output = sink;
         this.outputToFile = toFile;
         System.out.println("Режим вывода установлен: " + (toFile ? "в файл " + OUTPUT_FILE : "в консоль"));
     }
+
+    public void close() {
+        output.close();
+    }
 }
\ No newline at end of file
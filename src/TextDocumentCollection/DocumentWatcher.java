@@ -0,0 +1,127 @@
+package TextDocumentCollection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Фоновое наблюдение за корневой папкой. События накапливаются и передаются
+// в DocumentManager пачкой, когда папка затихает на DEBOUNCE_MS (но не реже MAX_DELAY_MS).
+public class DocumentWatcher implements Closeable {
+    private static final long DEBOUNCE_MS = 500;
+    private static final long MAX_DELAY_MS = 5000;
+
+    private final DocumentManager documentManager;
+    private final WatchService watchService;
+    private final Path rootDirectory;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final Set<Path> changed = new HashSet<>();
+    private final Set<Path> removed = new HashSet<>();
+    private boolean overflow;
+
+    private DocumentWatcher(DocumentManager documentManager, Path rootDirectory, List<Path> directories) throws IOException {
+        this.documentManager = documentManager;
+        this.rootDirectory = rootDirectory;
+        this.watchService = rootDirectory.getFileSystem().newWatchService();
+        for (Path directory : directories) {
+            register(directory);
+        }
+        this.thread = new Thread(this::run, "document-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    public static DocumentWatcher start(DocumentManager documentManager, Path rootDirectory,
+                                        List<Path> directories) throws IOException {
+        DocumentWatcher watcher = new DocumentWatcher(documentManager, rootDirectory, directories);
+        watcher.thread.start();
+        return watcher;
+    }
+
+    private void register(Path directory) throws IOException {
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    // Новая папка регистрируется сразу, а её содержимое попадает в текущую пачку
+    private void registerNewDirectory(Path directory) {
+        DocumentScanner scanner = documentManager.getScanner();
+        if (!scanner.withinDepth(rootDirectory, directory.resolve("x"))) return;
+        try {
+            // Регистрация до обхода: файл, созданный между ними, не потеряется
+            register(directory);
+            // Обход от корня коллекции: маски с '/' и глубина считаются относительно него
+            DocumentScanner.ScanResult result = scanner.rescan(rootDirectory, List.of(directory));
+            for (Path dir : result.directories()) register(dir);
+            documentManager.addDirectories(result.directories());
+            result.documents().forEach(m -> changed.add(m.path()));
+        } catch (IOException e) {
+            System.err.println("Не удалось наблюдать за папкой " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                WatchKey key = watchService.take();
+                long batchStart = System.currentTimeMillis();
+                while (key != null) {
+                    collect(key);
+                    if (System.currentTimeMillis() - batchStart >= MAX_DELAY_MS) break;
+                    key = watchService.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+                }
+                flush();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Наблюдение остановлено
+        }
+    }
+
+    private void collect(WatchKey key) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                registerNewDirectory(path);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                changed.remove(path);
+                removed.add(path);
+            } else {
+                removed.remove(path);
+                changed.add(path);
+            }
+        }
+        key.reset();
+    }
+
+    private void flush() {
+        try {
+            if (overflow) {
+                // События потеряны - остаётся только полная сверка
+                documentManager.updateDocumentList();
+            } else if (!changed.isEmpty() || !removed.isEmpty()) {
+                documentManager.applyChanges(new HashSet<>(changed), new HashSet<>(removed));
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Ошибка при обновлении коллекции: " + e.getMessage());
+        } finally {
+            changed.clear();
+            removed.clear();
+            overflow = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        watchService.close();
+        thread.interrupt();
+    }
+}
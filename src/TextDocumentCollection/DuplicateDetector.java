@@ -0,0 +1,311 @@
+package TextDocumentCollection;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.*;
+import java.util.*;
+
+// Поиск почти одинаковых документов. Для каждого документа считается подпись MinHash по
+// шинглам - тройкам подряд идущих слов; доля совпавших позиций двух подписей оценивает
+// сходство Жаккара их наборов шинглов. Подписи делятся на полосы (LSH): кандидатами
+// считаются документы, у которых совпала хотя бы одна полоса целиком, и только они
+// сравниваются между собой, так что поиск идёт за время, близкое к линейному.
+// Подписи хранятся в корневой папке; при открытии пересчитываются только изменившиеся документы.
+public class DuplicateDetector {
+    public static final String SIGNATURES_FILE = ".docsignatures";
+    public static final double DEFAULT_THRESHOLD = 0.8;
+    private static final int MAGIC = 0x54444D48; // "TDMH"
+    private static final int VERSION = 1;
+    private static final int HASHES = 128;
+    private static final int BANDS = 32;
+    private static final int ROWS = HASHES / BANDS;
+    private static final int SHINGLE = 3;
+    private static final int READ_BUFFER = 1 << 16;
+    private static final int EMPTY = Integer.MAX_VALUE;
+    private static final Metrics.Timer UPDATE_TIME =
+            Metrics.timer("signatures_update", "Пересчёт подписей MinHash изменённых документов");
+
+    // Хэш-функции h(x) = (a * x + b) >>> 33 с нечётными a; набор фиксирован,
+    // иначе сохранённые подписи нельзя было бы сравнивать с новыми
+    private static final long[] MULTIPLIERS = new long[HASHES];
+    private static final long[] ADDENDS = new long[HASHES];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EED_D0C5L);
+        for (int i = 0; i < HASHES; i++) {
+            MULTIPLIERS[i] = random.nextLong() | 1;
+            ADDENDS[i] = random.nextLong();
+        }
+    }
+
+    // Группа документов; similarity - наименьшая оценка сходства среди пар, объединивших группу
+    public record Cluster(List<Path> documents, double similarity) {
+    }
+
+    private record Entry(long size, long modified, int[] signature) {
+    }
+
+    private final Path rootDirectory;
+    private final Map<Path, Entry> signatures = new HashMap<>();
+    private final PrintStream log;
+    private boolean dirty;
+
+    private DuplicateDetector(Path rootDirectory, PrintStream log) {
+        this.rootDirectory = rootDirectory;
+        this.log = log;
+    }
+
+    // log получает сообщения о повреждённом файле подписей и необработанных документах
+    public static DuplicateDetector open(Path rootDirectory, Collection<DocumentMetadata> documents, PrintStream log)
+            throws IOException {
+        DuplicateDetector detector = new DuplicateDetector(rootDirectory, log);
+        Path file = rootDirectory.resolve(SIGNATURES_FILE);
+        if (Files.exists(file)) {
+            try {
+                detector.load(file);
+            } catch (IOException e) {
+                log.println("Файл подписей повреждён и будет построен заново: " + e.getMessage());
+                detector.signatures.clear();
+            }
+        }
+        if (detector.synchronize(documents)) {
+            detector.save();
+        }
+        return detector;
+    }
+
+    public synchronized int documentCount() {
+        return signatures.size();
+    }
+
+    // Приводит подписи к заданному списку документов; возвращает true, если они изменились
+    public synchronized boolean synchronize(Collection<DocumentMetadata> current) {
+        Set<Path> currentSet = new HashSet<>();
+        current.forEach(m -> currentSet.add(m.path()));
+        Set<Path> removed = new HashSet<>();
+        for (Path path : signatures.keySet()) {
+            if (!currentSet.contains(path)) removed.add(path);
+        }
+        return update(current, removed);
+    }
+
+    public synchronized void applyChanges(Collection<DocumentMetadata> changed, Set<Path> removed) {
+        if (update(changed, removed)) dirty = true;
+    }
+
+    private boolean update(Collection<DocumentMetadata> changed, Set<Path> removed) {
+        boolean modified = signatures.keySet().removeAll(removed);
+        List<DocumentMetadata> toHash = new ArrayList<>();
+        for (DocumentMetadata m : changed) {
+            Entry old = signatures.get(m.path());
+            if (old == null || old.size() != m.size() || old.modified() != m.modified()) toHash.add(m);
+        }
+        if (toHash.isEmpty()) return modified;
+
+        long started = System.nanoTime();
+        Map<Path, Entry> hashed = new HashMap<>();
+        toHash.parallelStream()
+                .map(m -> {
+                    try {
+                        return Map.entry(m.path(), new Entry(m.size(), m.modified(), signature(m.path(), m.charset())));
+                    } catch (IOException e) {
+                        log.println("Не удалось обработать " + m.path().getFileName() + ": " + e.getMessage());
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull)
+                .forEachOrdered(e -> hashed.put(e.getKey(), e.getValue()));
+        signatures.putAll(hashed);
+        UPDATE_TIME.recordSince(started);
+        return true;
+    }
+
+    // Подпись потоком: слова выделяются как в SearchIndex.terms, но без создания строк -
+    // хэш слова считается по мере чтения символов
+    public static int[] signature(Path path, Charset charset) throws IOException {
+        int[] signature = new int[HASHES];
+        Arrays.fill(signature, EMPTY);
+        long[] window = new long[SHINGLE];
+        int words = 0;
+        long word = 0;
+        boolean inWord = false;
+        char[] buffer = new char[READ_BUFFER];
+
+        try (DocumentFile file = DocumentFile.open(path, charset);
+             Reader reader = new InputStreamReader(file.newInputStream(), charset.newDecoder()
+                     .onMalformedInput(CodingErrorAction.REPLACE)
+                     .onUnmappableCharacter(CodingErrorAction.REPLACE))) {
+            int n;
+            while ((n = reader.read(buffer)) >= 0) {
+                for (int i = 0; i < n; i++) {
+                    char c = buffer[i];
+                    if (Character.isLetterOrDigit(c)) {
+                        if (!inWord) word = 0xCBF29CE484222325L;
+                        word = (word ^ Character.toLowerCase(c)) * 0x100000001B3L;
+                        inWord = true;
+                    } else if (inWord) {
+                        window[words++ % SHINGLE] = word;
+                        if (words >= SHINGLE) addShingle(signature, window, words);
+                        inWord = false;
+                    }
+                }
+            }
+        }
+        if (inWord) {
+            window[words++ % SHINGLE] = word;
+            if (words >= SHINGLE) addShingle(signature, window, words);
+        }
+        // Короткий документ - один шингл из всех его слов
+        if (words > 0 && words < SHINGLE) addShingle(signature, window, words);
+        return signature;
+    }
+
+    private static void addShingle(int[] signature, long[] window, int words) {
+        long shingle = 0;
+        for (int k = Math.max(0, words - SHINGLE); k < words; k++) shingle = mix(shingle ^ window[k % SHINGLE]);
+        for (int i = 0; i < HASHES; i++) {
+            int h = (int) ((MULTIPLIERS[i] * shingle + ADDENDS[i]) >>> 33);
+            if (h < signature[i]) signature[i] = h;
+        }
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    // Оценка сходства Жаккара по подписям
+    public static double similarity(int[] a, int[] b) {
+        int equal = 0;
+        for (int i = 0; i < HASHES; i++) {
+            if (a[i] == b[i]) equal++;
+        }
+        return (double) equal / HASHES;
+    }
+
+    // Группы документов со сходством не ниже threshold, от больших к меньшим.
+    // Полосы обрабатываются по очереди. Документы с одинаковым значением полосы связаны в список
+    // (последний - в таблице, предыдущие - в next), и новый документ сравнивается с каждым из них,
+    // кроме уже попавших в его группу: сравнение только с первым документом значения теряло пары,
+    // на которые первый не похож. В список попадают лишь документы, не примкнувшие ни к одной
+    // группе из него, так что копии одного текста не делают сравнения квадратичными.
+    public synchronized List<Cluster> clusters(double threshold) {
+        List<Path> paths = new ArrayList<>();
+        List<int[]> sigs = new ArrayList<>();
+        signatures.forEach((path, entry) -> {
+            if (entry.signature()[0] != EMPTY) {
+                paths.add(path);
+                sigs.add(entry.signature());
+            }
+        });
+        int n = paths.size();
+        int[] parent = new int[n];
+        double[] weakest = new double[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+            weakest[i] = 1.0;
+        }
+
+        Map<Long, Integer> buckets = new HashMap<>(n * 2);
+        int[] next = new int[n];
+        for (int band = 0; band < BANDS; band++) {
+            buckets.clear();
+            for (int i = 0; i < n; i++) {
+                long key = bandKey(sigs.get(i), band);
+                Integer last = buckets.get(key);
+                boolean joined = false;
+                for (int j = last == null ? -1 : last; j >= 0; j = next[j]) {
+                    if (find(parent, j) == find(parent, i)) {
+                        joined = true;
+                        continue;
+                    }
+                    double s = similarity(sigs.get(j), sigs.get(i));
+                    if (s >= threshold) {
+                        union(parent, weakest, j, i, s);
+                        joined = true;
+                    }
+                }
+                if (!joined) {
+                    next[i] = last == null ? -1 : last;
+                    buckets.put(key, i);
+                }
+            }
+        }
+
+        Map<Integer, List<Path>> groups = new HashMap<>();
+        for (int i = 0; i < n; i++) groups.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(paths.get(i));
+        List<Cluster> result = new ArrayList<>();
+        groups.forEach((root, members) -> {
+            if (members.size() < 2) return;
+            Collections.sort(members);
+            result.add(new Cluster(members, weakest[root]));
+        });
+        result.sort(Comparator.comparingInt((Cluster c) -> c.documents().size()).reversed()
+                .thenComparing(c -> c.documents().get(0)));
+        return result;
+    }
+
+    private static long bandKey(int[] signature, int band) {
+        long key = band;
+        for (int r = band * ROWS; r < (band + 1) * ROWS; r++) key = key * 0x9E3779B97F4A7C15L + signature[r];
+        return mix(key);
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, double[] weakest, int a, int b, double similarity) {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        parent[rb] = ra;
+        weakest[ra] = Math.min(Math.min(weakest[ra], weakest[rb]), similarity);
+    }
+
+    // Сохраняет подписи, только если они менялись после последней записи
+    public synchronized void saveIfDirty() throws IOException {
+        if (dirty) save();
+    }
+
+    public synchronized void save() throws IOException {
+        Path file = rootDirectory.resolve(SIGNATURES_FILE);
+        Path tmp = rootDirectory.resolve(SIGNATURES_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(HASHES);
+            out.writeInt(signatures.size());
+            for (Map.Entry<Path, Entry> e : signatures.entrySet()) {
+                out.writeUTF(rootDirectory.relativize(e.getKey()).toString());
+                out.writeLong(e.getValue().size());
+                out.writeLong(e.getValue().modified());
+                for (int h : e.getValue().signature()) out.writeInt(h);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    private void load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != HASHES) {
+                throw new IOException("неизвестный формат файла подписей");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Path path = rootDirectory.resolve(in.readUTF());
+                long size = in.readLong();
+                long modified = in.readLong();
+                int[] signature = new int[HASHES];
+                for (int k = 0; k < HASHES; k++) signature[k] = in.readInt();
+                signatures.put(path, new Entry(size, modified, signature));
+            }
+        }
+    }
+}
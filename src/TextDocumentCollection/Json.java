@@ -0,0 +1,243 @@
+package TextDocumentCollection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Минимальная сериализация в JSON для построчного (JSON Lines) вывода и ответов сервера
+// и разбор одного значения JSON (для построчного ввода)
+public final class Json {
+
+    // Уже готовый JSON, вставляется в объект без экранирования
+    public record Raw(String json) {
+        @Override
+        public String toString() {
+            return json;
+        }
+    }
+
+    private Json() {
+    }
+
+    public static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // Собирает объект из пар ключ-значение; строки экранируются, числа и boolean пишутся как есть
+    public static String object(Object... keyValues) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < keyValues.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(quote(keyValues[i].toString())).append(':');
+            Object value = keyValues[i + 1];
+            if (value == null) {
+                sb.append("null");
+            } else if (value instanceof Number || value instanceof Boolean || value instanceof Raw) {
+                sb.append(value);
+            } else {
+                sb.append(quote(value.toString()));
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    // Массив из готовых JSON-значений (например, результатов object)
+    public static Raw array(Collection<String> elements) {
+        return new Raw("[" + String.join(",", elements) + "]");
+    }
+
+    // Объект - LinkedHashMap, массив - List, целое число - Long, дробное - Double.
+    // Некорректный текст - IllegalArgumentException.
+    public static Object parse(String text) {
+        Parser parser = new Parser(text);
+        Object value = parser.value();
+        parser.skipWhitespace();
+        if (parser.pos < text.length()) throw parser.error("лишние символы после значения");
+        return value;
+    }
+
+    private static final class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Object value() {
+            skipWhitespace();
+            if (pos >= text.length()) throw error("неожиданный конец текста");
+            char c = text.charAt(pos);
+            return switch (c) {
+                case '{' -> object();
+                case '[' -> array();
+                case '"' -> string();
+                case 't' -> literal("true", Boolean.TRUE);
+                case 'f' -> literal("false", Boolean.FALSE);
+                case 'n' -> literal("null", null);
+                default -> {
+                    if (c == '-' || (c >= '0' && c <= '9')) yield number();
+                    throw error("неожиданный символ '" + c + "'");
+                }
+            };
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return result;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') throw error("ожидается имя поля");
+                String key = string();
+                skipWhitespace();
+                expect(':');
+                result.put(key, value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return result;
+                }
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> result = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return result;
+            }
+            while (true) {
+                result.add(value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return result;
+                }
+            }
+        }
+
+        private String string() {
+            pos++;
+            StringBuilder sb = null;
+            int start = pos;
+            while (true) {
+                if (pos >= text.length()) throw error("незакрытая строка");
+                char c = text.charAt(pos);
+                if (c == '"') {
+                    String tail = text.substring(start, pos++);
+                    return sb == null ? tail : sb.append(tail).toString();
+                }
+                if (c < 0x20) throw error("управляющий символ в строке");
+                if (c != '\\') {
+                    pos++;
+                    continue;
+                }
+                // Буфер нужен только со встреченной последовательности; обычная строка берётся одной подстрокой
+                if (sb == null) sb = new StringBuilder();
+                sb.append(text, start, pos);
+                if (++pos >= text.length()) throw error("незакрытая строка");
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case '"', '\\', '/' -> sb.append(escaped);
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'u' -> {
+                        if (pos + 4 > text.length()) throw error("неполная последовательность \\u");
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("неверная последовательность \\u");
+                        }
+                        pos += 4;
+                    }
+                    default -> throw error("неизвестная последовательность \\" + escaped);
+                }
+                start = pos;
+            }
+        }
+
+        private Object number() {
+            int start = pos;
+            if (peek() == '-') pos++;
+            boolean integral = true;
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (c >= '0' && c <= '9') {
+                    pos++;
+                } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                    integral = false;
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            String number = text.substring(start, pos);
+            try {
+                return integral ? (Object) Long.parseLong(number) : (Object) Double.parseDouble(number);
+            } catch (NumberFormatException e) {
+                throw error("неверное число " + number);
+            }
+        }
+
+        private Object literal(String word, Object value) {
+            if (!text.startsWith(word, pos)) throw error("неизвестное значение");
+            pos += word.length();
+            return value;
+        }
+
+        private char peek() {
+            return pos < text.length() ? text.charAt(pos) : 0;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) throw error("ожидается '" + c + "'");
+            pos++;
+        }
+
+        void skipWhitespace() {
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') break;
+                pos++;
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Некорректный JSON (позиция " + (pos + 1) + "): " + message);
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package TextDocumentCollection;
 
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+
 // Создать приложение «Коллекция текстовых документов».
 //Проект должен позволять выполнять базовые операции с текстовыми документами:
 //открытие документа (если содержимое документа не помещается на
@@ -16,6 +21,15 @@ package TextDocumentCollection;
 //Приложение должно поддерживать интерфейс командной строки
 public class Main {
     public static void main(String[] args) {
+        // С аргументами приложение работает как утилита командной строки, без меню
+        if (args.length > 0) {
+            PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+                    false, System.out.charset());
+            int status = new BatchCommandLine(out, System.err).run(args);
+            out.flush();
+            System.exit(status);
+        }
+
         TextDocumentCollectionApp app = new TextDocumentCollectionApp();
         app.run();
     }
@@ -0,0 +1,78 @@
+package TextDocumentCollection;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Документ, отображённый в память. Содержимое не читается целиком:
+// страницы декодируются только из своего диапазона байтов (см. PageLayout).
+public class MappedDocument implements DocumentFile {
+    private static final int SEGMENT_SHIFT = 30; // сегменты по 1 ГБ
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private final Charset charset;
+
+    private MappedDocument(FileChannel channel, Charset charset) throws IOException {
+        this.channel = channel;
+        this.charset = charset;
+        this.size = channel.size();
+
+        int segmentCount = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+        this.segments = new MappedByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+    }
+
+    public static MappedDocument open(Path path, Charset charset) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new MappedDocument(channel, charset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public Charset charset() {
+        return charset;
+    }
+
+    @Override
+    public byte get(long pos) {
+        return segments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & SEGMENT_MASK));
+    }
+
+    @Override
+    public void get(long pos, byte[] dst, int off, int len) {
+        while (len > 0) {
+            MappedByteBuffer segment = segments[(int) (pos >>> SEGMENT_SHIFT)];
+            int inSegment = (int) (pos & SEGMENT_MASK);
+            int chunk = Math.min(len, segment.limit() - inSegment);
+            segment.get(inSegment, dst, off, chunk);
+            pos += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    // Отображение остаётся доступным и после закрытия канала
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,279 @@
+package TextDocumentCollection;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Встроенные метрики: счётчики, таймеры с гистограммой задержек и показатели-функции.
+// Запись - это LongAdder и атомарный инкремент ячейки гистограммы без блокировок и выделений
+// памяти, поэтому метрики включены всегда. Наружу они видны через JMX (после registerMBeans)
+// и, по желанию, через HTTP в текстовом формате Prometheus (MetricsEndpoint).
+public final class Metrics {
+    private static final String DOMAIN = "TextDocumentCollection";
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private static volatile boolean jmxEnabled;
+
+    private Metrics() {
+    }
+
+    public interface CounterMXBean {
+        long getValue();
+    }
+
+    public interface TimerMXBean {
+        long getCount();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP99Millis();
+
+        double getMaxMillis();
+    }
+
+    public interface GaugeMXBean {
+        long getValue();
+    }
+
+    public static final class Counter implements CounterMXBean {
+        private final String name;
+        private final String help;
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        @Override
+        public long getValue() {
+            return value.sum();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHelp() {
+            return help;
+        }
+    }
+
+    public static final class Gauge implements GaugeMXBean {
+        private final String name;
+        private final String help;
+        private final LongSupplier supplier;
+
+        private Gauge(String name, String help, LongSupplier supplier) {
+            this.name = name;
+            this.help = help;
+            this.supplier = supplier;
+        }
+
+        @Override
+        public long getValue() {
+            return supplier.getAsLong();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHelp() {
+            return help;
+        }
+    }
+
+    // Гистограмма в духе HdrHistogram: интервалы по степеням двойки, каждый поделён на 16 частей,
+    // так что относительная погрешность не больше 1/16 на всём диапазоне от наносекунд до часов
+    public static final class Timer implements TimerMXBean {
+        static final int SUB_BITS = 4;
+        static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int BUCKETS = SUB_COUNT + (64 - SUB_BITS) * SUB_COUNT;
+
+        private final String name;
+        private final String help;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Timer(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        // Использование: long started = System.nanoTime(); ... timer.recordSince(started);
+        public void recordSince(long startedNanos) {
+            record(System.nanoTime() - startedNanos);
+        }
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            sum.add(nanos);
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            max.accumulate(nanos);
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_COUNT) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+            return SUB_COUNT + (exponent - SUB_BITS) * SUB_COUNT + sub;
+        }
+
+        // Верхняя граница (не включительно) значений ячейки
+        static long bucketLimit(int bucket) {
+            if (bucket < SUB_COUNT) return bucket + 1;
+            int exponent = (bucket - SUB_COUNT) / SUB_COUNT + SUB_BITS;
+            int sub = (bucket - SUB_COUNT) % SUB_COUNT;
+            long limit = ((long) (SUB_COUNT + sub + 1)) << (exponent - SUB_BITS);
+            return limit < 0 ? Long.MAX_VALUE : limit;
+        }
+
+        // Ячейки, число и сумма значений на один момент. Число считается по скопированным ячейкам,
+        // так что оно всегда совпадает с гистограммой; сумма читается сразу после них и может
+        // включать значение, которое записывается в этот момент и в ячейки ещё не попало
+        public Snapshot snapshot() {
+            long[] copy = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = buckets.get(i);
+                total += copy[i];
+            }
+            return new Snapshot(copy, total, sum.sum());
+        }
+
+        public long percentileNanos(double percentile) {
+            long total = count.sum();
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(percentile / 100.0 * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= Math.max(1, rank)) return Math.min(bucketLimit(i) - 1, max.get());
+            }
+            return max.get();
+        }
+
+        public long getSumNanos() {
+            return sum.sum();
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : sum.sum() / 1e6 / n;
+        }
+
+        @Override
+        public double getP50Millis() {
+            return percentileNanos(50) / 1e6;
+        }
+
+        @Override
+        public double getP99Millis() {
+            return percentileNanos(99) / 1e6;
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return max.get() / 1e6;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHelp() {
+            return help;
+        }
+
+        public record Snapshot(long[] buckets, long count, long sumNanos) {
+            // Число значений не больше 2^exponent - 1 наносекунд: граница совпадает с границей ячеек
+            public long countAtMost(int exponent) {
+                int limit = exponent <= SUB_BITS ? (1 << exponent) : SUB_COUNT + (exponent - SUB_BITS) * SUB_COUNT;
+                long result = 0;
+                for (int i = 0; i < limit && i < buckets.length; i++) result += buckets[i];
+                return result;
+            }
+        }
+    }
+
+    public static Counter counter(String name, String help) {
+        return counters.computeIfAbsent(name, n -> register("Counter", n, new Counter(n, help)));
+    }
+
+    public static Timer timer(String name, String help) {
+        return timers.computeIfAbsent(name, n -> register("Timer", n, new Timer(n, help)));
+    }
+
+    // Показатель вычисляется при чтении; повторная регистрация заменяет функцию
+    public static void gauge(String name, String help, LongSupplier supplier) {
+        Gauge gauge = new Gauge(name, help, supplier);
+        gauges.put(name, gauge);
+        if (jmxEnabled) registerMBean("Gauge", name, gauge);
+    }
+
+    public static Map<String, Counter> counters() {
+        return counters;
+    }
+
+    public static Map<String, Timer> timers() {
+        return timers;
+    }
+
+    public static Map<String, Gauge> gauges() {
+        return gauges;
+    }
+
+    // Регистрирует уже созданные метрики в JMX; созданные позже регистрируются сразу
+    public static synchronized void registerMBeans() {
+        if (jmxEnabled) return;
+        jmxEnabled = true;
+        counters.forEach((name, c) -> registerMBean("Counter", name, c));
+        timers.forEach((name, t) -> registerMBean("Timer", name, t));
+        gauges.forEach((name, g) -> registerMBean("Gauge", name, g));
+    }
+
+    private static <T> T register(String type, String name, T metric) {
+        if (jmxEnabled) registerMBean(type, name, metric);
+        return metric;
+    }
+
+    private static void registerMBean(String type, String name, Object metric) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + name);
+            if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+            server.registerMBean(metric, objectName);
+        } catch (JMException e) {
+            System.err.println("Не удалось зарегистрировать метрику " + name + " в JMX: " + e.getMessage());
+        }
+    }
+}
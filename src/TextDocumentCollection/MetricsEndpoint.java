@@ -0,0 +1,116 @@
+package TextDocumentCollection;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+
+// Локальная HTTP-точка /metrics в текстовом формате Prometheus.
+// Включается параметром -Dtdc.metrics.port=<порт>; слушает только loopback.
+public class MetricsEndpoint {
+    public static final String PORT_PROPERTY = "tdc.metrics.port";
+    private static final String PREFIX = "tdc_";
+    // Границы гистограмм - степени двойки наносекунд от ~1 мкс до ~17 с. Значения целые,
+    // поэтому включительная граница le - это 2^k - 1 нс: в ячейки ниже 2^k попадают ровно они
+    private static final int MIN_EXPONENT = 10;
+    private static final int MAX_EXPONENT = 34;
+
+    private final HttpServer server;
+
+    private MetricsEndpoint(HttpServer server) {
+        this.server = server;
+    }
+
+    public static MetricsEndpoint start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", MetricsEndpoint::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-endpoint");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        return new MetricsEndpoint(server);
+    }
+
+    // Запускает точку, если задан порт; иначе ничего не делает
+    public static MetricsEndpoint startIfConfigured() {
+        Integer port = Integer.getInteger(PORT_PROPERTY);
+        if (port == null) return null;
+        try {
+            MetricsEndpoint endpoint = start(port);
+            System.out.println("Метрики доступны по адресу http://localhost:" + endpoint.getPort() + "/metrics");
+            return endpoint;
+        } catch (IOException e) {
+            System.out.println("Не удалось запустить точку метрик: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = format().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    public static String format() {
+        StringBuilder sb = new StringBuilder();
+        new TreeMap<>(Metrics.counters()).forEach((name, c) -> {
+            header(sb, name + "_total", c.getHelp(), "counter");
+            sb.append(PREFIX).append(name).append("_total ").append(c.getValue()).append('\n');
+        });
+        new TreeMap<>(Metrics.gauges()).forEach((name, g) -> {
+            header(sb, name, g.getHelp(), "gauge");
+            sb.append(PREFIX).append(name).append(' ').append(g.getValue()).append('\n');
+        });
+        for (Map.Entry<String, Metrics.Timer> e : new TreeMap<>(Metrics.timers()).entrySet()) {
+            String name = e.getKey() + "_seconds";
+            Metrics.Timer timer = e.getValue();
+            Metrics.Timer.Snapshot snapshot = timer.snapshot();
+            header(sb, name, timer.getHelp(), "histogram");
+            for (int exponent = MIN_EXPONENT; exponent <= MAX_EXPONENT; exponent++) {
+                sb.append(PREFIX).append(name).append("_bucket{le=\"")
+                        .append(seconds((1L << exponent) - 1)).append("\"} ")
+                        .append(snapshot.countAtMost(exponent)).append('\n');
+            }
+            sb.append(PREFIX).append(name).append("_bucket{le=\"+Inf\"} ").append(snapshot.count()).append('\n');
+            sb.append(PREFIX).append(name).append("_sum ").append(seconds(snapshot.sumNanos())).append('\n');
+            sb.append(PREFIX).append(name).append("_count ").append(snapshot.count()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9g", nanos / 1e9);
+    }
+}
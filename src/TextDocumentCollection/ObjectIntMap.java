@@ -0,0 +1,137 @@
+package TextDocumentCollection;
+
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+// Счётчики объект -> int без упаковки в Integer: открытая адресация с линейным пробированием.
+// Ключ, счётчик которого стал нулевым, удаляется сдвигом следующих элементов цепочки,
+// поэтому таблица остаётся плотной и после многократных вычитаний.
+public class ObjectIntMap<K> {
+    private static final int MIN_CAPACITY = 8;
+
+    private Object[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    public ObjectIntMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public ObjectIntMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        // заполнение не больше половины
+        int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize * 2 - 1)) << 1;
+        return capacity < 0 ? 1 << 30 : capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(K key) {
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            Object k = keys[i];
+            if (k == null) return 0;
+            if (k.equals(key)) return values[i];
+        }
+    }
+
+    // Прибавляет delta к счётчику ключа и возвращает новое значение
+    public int add(K key, int delta) {
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            Object k = keys[i];
+            if (k == null) {
+                if (delta == 0) return 0;
+                keys[i] = key;
+                values[i] = delta;
+                if (++size * 2 > keys.length) grow();
+                return delta;
+            }
+            if (k.equals(key)) {
+                int value = values[i] + delta;
+                if (value == 0) {
+                    removeAt(i);
+                } else {
+                    values[i] = value;
+                }
+                return value;
+            }
+        }
+    }
+
+    public int increment(K key) {
+        return add(key, 1);
+    }
+
+    // sign = 1 - сложить счётчики, -1 - вычесть
+    public void addAll(ObjectIntMap<K> other, int sign) {
+        other.forEach((key, value) -> add(key, sign * value));
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(ObjIntConsumer<K> action) {
+        Object[] keys = this.keys;
+        int[] values = this.values;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) action.accept((K) keys[i], values[i]);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    // Дыра на месте i заполняется элементами цепочки, чей исходный слот не лежит между i и ними
+    private void removeAt(int i) {
+        size--;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            Object k = keys[j];
+            if (k == null) break;
+            int home = slot(k);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = k;
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = null;
+        values[i] = 0;
+    }
+
+    private void grow() {
+        Object[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            Object k = oldKeys[i];
+            if (k == null) continue;
+            int j = slot(k);
+            while (keys[j] != null) j = (j + 1) & mask;
+            keys[j] = k;
+            values[j] = oldValues[i];
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package TextDocumentCollection;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// Приёмник постраничного вывода. Реализации буферизуют строки и пишут их
+// крупными блоками; flush вызывается после каждой выведенной страницы.
+public interface OutputSink extends Closeable {
+    int BUFFER_SIZE = 1 << 16;
+
+    void println(CharSequence line);
+
+    // Строка - часть текста [start, end); реализация может записать её, не создавая подстроку
+    default void println(CharSequence text, int start, int end) {
+        println(text.subSequence(start, end));
+    }
+
+    void flush();
+
+    @Override
+    void close();
+
+    // Консоль через тот же буфер; сам stdout при закрытии не закрывается
+    static OutputSink console() {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), System.out.charset());
+        return new BufferedOutputSink(new BufferedWriter(writer, BUFFER_SIZE), false);
+    }
+
+    // Файл открывается один раз на сеанс и дописывается
+    static OutputSink file(Path path) throws IOException {
+        Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return new BufferedOutputSink(writer, true);
+    }
+}
@@ -0,0 +1,337 @@
+package TextDocumentCollection;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Разметка документа на страницы. Документ просматривается один раз в фоновом потоке;
+// страница состоит из целых экранных строк: строки документа режутся по переводу строки
+// и по правилу переноса LINE_LENGTH (см. wrapEnd), поэтому страница не обрывает строку
+// посередине. Смещения начала страниц хранятся в таблице, переход к любой странице - O(1).
+public class PageLayout {
+    public static final int LINE_LENGTH = 200;
+    private static final int READ_BUFFER = 1 << 16;
+    private static final int CACHE_SIZE = 16;
+    private static final Metrics.Timer LAYOUT_TIME = Metrics.timer("page_layout", "Разметка документа на страницы");
+    private static final Metrics.Counter BYTES_READ = Metrics.counter("bytes_read", "Прочитано байтов документов");
+
+    private record Key(Path path, long size, long modified, int pageSize) {
+    }
+
+    // Разметки неизменённых документов; ключ включает размер и время изменения файла,
+    // так что после правки файла старая разметка просто перестаёт находиться
+    private static final Map<Key, PageLayout> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, PageLayout> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private static final ReentrantLock cacheLock = new ReentrantLock();
+
+    private final int pageSize; // В символах
+    private final long size;
+    // Не монитор: ожидающие страницу виртуальные потоки не должны занимать поток-носитель
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition progress = lock.newCondition();
+    private long[] pageOffsets = new long[64];
+    private int pageCount;
+    private boolean complete;
+    private RuntimeException failure;
+    private volatile boolean cancelled;
+
+    private PageLayout(long size, int pageSize) {
+        this.size = size;
+        this.pageSize = pageSize;
+    }
+
+    // Запускает разметку в фоновом потоке; страницы доступны по мере продвижения
+    public static PageLayout build(ByteSource source, int pageSize) {
+        PageLayout layout = new PageLayout(source.size(), pageSize);
+        Thread thread = new Thread(() -> layout.scan(source), "page-layout");
+        thread.setDaemon(true);
+        thread.start();
+        return layout;
+    }
+
+    // fileMetadata == null - содержимое не совпадает с файлом на диске и не кэшируется
+    public static PageLayout forDocument(Path path, DocumentMetadata fileMetadata, ByteSource source, int pageSize) {
+        if (fileMetadata == null) return build(source, pageSize);
+        Key key = new Key(path, fileMetadata.size(), fileMetadata.modified(), pageSize);
+        cacheLock.lock();
+        try {
+            PageLayout layout = cache.get(key);
+            if (layout == null || layout.cancelled) {
+                layout = build(source, pageSize);
+                cache.put(key, layout);
+            }
+            return layout;
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean hasPage(int page) {
+        return page >= 0 && (page == 0 || awaitPage(page));
+    }
+
+    public long pageStart(int page) {
+        return awaitPage(page) ? offset(page) : size;
+    }
+
+    public long pageEnd(int page) {
+        return pageStart(page + 1);
+    }
+
+    // Номер страницы, на которую приходится байт offset
+    public int pageOf(long offset) {
+        lock.lock();
+        try {
+            while (!complete && (pageCount == 0 || pageOffsets[pageCount - 1] <= offset)) await();
+            if (!complete || failure == null) {
+                int found = Arrays.binarySearch(pageOffsets, 0, pageCount, offset);
+                return Math.max(0, found >= 0 ? found : -found - 2);
+            }
+            throw failure();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isComplete() {
+        lock.lock();
+        try {
+            return complete;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Число уже размеченных страниц (окончательное, если isComplete)
+    public int knownPages() {
+        lock.lock();
+        try {
+            return Math.max(1, pageCount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public String readPage(ByteSource source, int page) {
+        return source.decode(pageStart(page), pageEnd(page));
+    }
+
+    private long offset(int page) {
+        lock.lock();
+        try {
+            return pageOffsets[page];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean awaitPage(int page) {
+        lock.lock();
+        try {
+            while (page >= pageCount && !complete) await();
+            if (page >= pageCount && failure != null) throw failure();
+            return page < pageCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void await() {
+        try {
+            progress.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Разметка страниц прервана", e);
+        }
+    }
+
+    private IllegalStateException failure() {
+        return new IllegalStateException("Ошибка разметки страниц: " + failure.getMessage(), failure);
+    }
+
+    private void addPage(long offset) {
+        lock.lock();
+        try {
+            if (pageCount == pageOffsets.length) {
+                pageOffsets = Arrays.copyOf(pageOffsets, pageOffsets.length * 2);
+            }
+            pageOffsets[pageCount++] = offset;
+            progress.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void finish(RuntimeException error) {
+        lock.lock();
+        try {
+            if (pageCount == 0) {
+                pageOffsets[pageCount++] = 0;
+            }
+            failure = error;
+            complete = true;
+            progress.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void scan(ByteSource source) {
+        long started = System.nanoTime();
+        try {
+            Cursor cursor = new Cursor(source);
+            long pos = 0;
+            int pageChars = 0;
+            int pageLines = 0;
+            addPage(0);
+            while (pos < size && !cancelled) {
+                long lineEnd = cursor.displayLineEnd(pos);
+                int cost = cursor.chars + (cursor.newline ? 1 : 0);
+                if (pageLines > 0 && pageChars + cost > pageSize) {
+                    addPage(pos);
+                    pageChars = 0;
+                    pageLines = 0;
+                }
+                pageChars += cost;
+                pageLines++;
+                pos = cursor.newline ? lineEnd + 1 : lineEnd;
+            }
+            BYTES_READ.add(pos);
+            if (cancelled) {
+                finish(new IllegalStateException("разметка отменена"));
+            } else {
+                LAYOUT_TIME.recordSince(started);
+                finish(null);
+            }
+        } catch (RuntimeException e) {
+            finish(e);
+        }
+    }
+
+    // Конец экранной строки, начинающейся с from: перевод строки, конец текста или перенос.
+    // Перенос - через LINE_LENGTH символов; если он разрывает слово, строка укорачивается
+    // до последнего пробела. Это же правило применяется при выводе страницы.
+    public static int wrapEnd(CharSequence text, int from) {
+        int length = text.length();
+        int limit = Math.min(from + LINE_LENGTH, length);
+        for (int i = from; i < limit; i++) {
+            if (text.charAt(i) == '\n') return i;
+        }
+        int end = limit;
+        if (end < length && Character.isLowSurrogate(text.charAt(end))) end--;
+        if (end < length && text.charAt(end) != '\n' && !Character.isWhitespace(text.charAt(end)) &&
+                !Character.isWhitespace(text.charAt(end - 1))) {
+            for (int i = end - 1; i > from; i--) {
+                if (text.charAt(i) == ' ') return i;
+            }
+        }
+        return end;
+    }
+
+    // Тот же перенос, что и wrapEnd, но по байтам без декодирования всего документа.
+    // Однобайтовая кодировка декодируется таблицей, UTF-8 - разбором последовательностей.
+    private static final class Cursor {
+        private final ByteSource source;
+        private final long size;
+        private final char[] table;
+        private final byte[] buffer = new byte[READ_BUFFER];
+        private long bufferStart;
+        private int bufferLength;
+
+        int chars; // длина последней экранной строки в символах UTF-16
+        boolean newline; // строка закончилась переводом строки
+
+        Cursor(ByteSource source) {
+            this.source = source;
+            this.size = source.size();
+            this.table = TextEncoding.isSingleByte(source.charset()) ? TextEncoding.decodeTable(source.charset()) : null;
+        }
+
+        private byte byteAt(long pos) {
+            if (pos < bufferStart || pos >= bufferStart + bufferLength) {
+                bufferStart = pos;
+                bufferLength = (int) Math.min(buffer.length, size - pos);
+                source.get(pos, buffer, 0, bufferLength);
+            }
+            return buffer[(int) (pos - bufferStart)];
+        }
+
+        long displayLineEnd(long from) {
+            long pos = from;
+            int count = 0;
+            long lastSpace = -1;
+            int lastSpaceChars = 0;
+            boolean previousWhitespace = false;
+            newline = false;
+            while (pos < size) {
+                int b = byteAt(pos);
+                int width;
+                int codePoint;
+                if (table != null) {
+                    width = 1;
+                    codePoint = table[b & 0xFF];
+                } else if (b >= 0) {
+                    width = 1;
+                    codePoint = b;
+                } else if ((b & 0xE0) == 0xC0) {
+                    width = 2;
+                    codePoint = b & 0x1F;
+                } else if ((b & 0xF0) == 0xE0) {
+                    width = 3;
+                    codePoint = b & 0x0F;
+                } else if ((b & 0xF8) == 0xF0) {
+                    width = 4;
+                    codePoint = b & 0x07;
+                } else {
+                    width = 1;
+                    codePoint = 0xFFFD;
+                }
+                width = (int) Math.min(width, size - pos);
+                for (int i = 1; i < width; i++) codePoint = (codePoint << 6) | (byteAt(pos + i) & 0x3F);
+                int units = width == 4 ? 2 : 1;
+
+                if (codePoint == '\n') {
+                    newline = true;
+                    chars = count;
+                    return pos;
+                }
+                if (count + units > LINE_LENGTH) {
+                    if (!Character.isWhitespace(codePoint) && !previousWhitespace && lastSpace > from) {
+                        chars = lastSpaceChars;
+                        return lastSpace;
+                    }
+                    chars = count;
+                    return pos;
+                }
+                if (codePoint == ' ') {
+                    lastSpace = pos;
+                    lastSpaceChars = count;
+                }
+                previousWhitespace = Character.isWhitespace(codePoint);
+                count += units;
+                pos += width;
+            }
+            chars = count;
+            return pos;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package TextDocumentCollection;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Постраничный просмотр с упреждающей подготовкой страниц. Пока пользователь читает страницу,
+// соседние страницы в фоне читаются, декодируются и разбиваются на экранные строки, так что
+// листание не ждёт ни диска, ни разметки. Глубина упреждения подстраивается под направление:
+// при листании подряд вперёд (назад) она удваивается в эту сторону до MAX_DEPTH, а в обратную
+// сокращается до одной страницы; переход к произвольной странице возвращает исходные значения.
+//
+// Строки страницы не копируются: это границы внутри декодированного текста страницы
+// (того же, что хранит DocumentCache), а массивы границ переиспользуются после вытеснения страниц.
+public class PageNavigator implements AutoCloseable {
+    private static final int FORWARD_DEPTH = 2;
+    private static final int BACKWARD_DEPTH = 1;
+    private static final int MAX_DEPTH = 8;
+    private static final int SPARE_LINE_BUFFERS = MAX_DEPTH * 2;
+    private static final Metrics.Counter PAGES_PREFETCHED =
+            Metrics.counter("pages_prefetched", "Страниц подготовлено заранее");
+    private static final Metrics.Counter PREFETCH_HITS =
+            Metrics.counter("prefetch_hits", "Страниц показано из подготовленных заранее");
+    private static final ExecutorService PREFETCH = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "page-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Страница, разбитая на экранные строки; строка i - text[lines[2i], lines[2i + 1])
+    public record RenderedPage(int page, long start, long end, String text, int[] lines, int lineCount) {
+    }
+
+    private final Path path;
+    private final DocumentMetadata fileMetadata;
+    private final ByteSource source;
+    private final PageLayout layout;
+    private final DocumentCache cache;
+    // Подготовленные и готовящиеся страницы; обращения - только из потока просмотра
+    private final Map<Integer, CompletableFuture<RenderedPage>> window = new HashMap<>();
+    private final ArrayDeque<int[]> spareLines = new ArrayDeque<>();
+    private int lastPage = -1;
+    private int forwardDepth = FORWARD_DEPTH;
+    private int backwardDepth = BACKWARD_DEPTH;
+
+    // fileMetadata == null - несохранённая версия: страницы не кэшируются в DocumentCache
+    public PageNavigator(Path path, DocumentMetadata fileMetadata, ByteSource source, PageLayout layout,
+                         DocumentCache cache) {
+        this.path = path;
+        this.fileMetadata = fileMetadata;
+        this.source = source;
+        this.layout = layout;
+        this.cache = cache;
+    }
+
+    public PageLayout getLayout() {
+        return layout;
+    }
+
+    // Страница для показа: готовая - сразу, готовящаяся - по завершении, иначе готовится здесь же
+    public RenderedPage show(int page) {
+        adapt(page);
+        CompletableFuture<RenderedPage> future = window.get(page);
+        RenderedPage rendered = null;
+        if (future != null && !future.isCancelled()) {
+            try {
+                rendered = future.join();
+                if (rendered != null) PREFETCH_HITS.increment();
+            } catch (CompletionException e) {
+                // подготовка в фоне не удалась - повторяем здесь, ошибка дойдёт до вызывающего
+            }
+        }
+        if (rendered == null) {
+            rendered = render(page);
+            window.put(page, CompletableFuture.completedFuture(rendered));
+        }
+        lastPage = page;
+        prefetch(page);
+        return rendered;
+    }
+
+    public void print(RenderedPage page, OutputSink output) {
+        int[] lines = page.lines();
+        for (int i = 0; i < page.lineCount(); i++) {
+            output.println(page.text(), lines[2 * i], lines[2 * i + 1]);
+        }
+        output.flush();
+    }
+
+    private void adapt(int page) {
+        if (lastPage >= 0 && page == lastPage + 1) {
+            forwardDepth = Math.min(MAX_DEPTH, forwardDepth * 2);
+            backwardDepth = 1;
+        } else if (lastPage >= 0 && page == lastPage - 1) {
+            backwardDepth = Math.min(MAX_DEPTH, backwardDepth * 2);
+            forwardDepth = 1;
+        } else if (page != lastPage) {
+            forwardDepth = FORWARD_DEPTH;
+            backwardDepth = BACKWARD_DEPTH;
+        }
+    }
+
+    // Страницы вне окна вытесняются, недостающие в окне заказываются - сначала ближние
+    private void prefetch(int page) {
+        int from = page - backwardDepth;
+        int to = page + forwardDepth;
+        Iterator<Map.Entry<Integer, CompletableFuture<RenderedPage>>> it = window.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, CompletableFuture<RenderedPage>> e = it.next();
+            if (e.getKey() >= from && e.getKey() <= to) continue;
+            release(e.getValue());
+            it.remove();
+        }
+        for (int k = 1; k <= Math.max(forwardDepth, backwardDepth); k++) {
+            if (k <= forwardDepth) schedule(page + k);
+            if (k <= backwardDepth && page - k >= 0) schedule(page - k);
+        }
+    }
+
+    private void schedule(int page) {
+        if (window.containsKey(page)) return;
+        // Разметка ещё может идти: фоновая задача дождётся страницы, поток просмотра - нет
+        window.put(page, CompletableFuture.supplyAsync(() -> {
+            if (!layout.hasPage(page)) return null;
+            PAGES_PREFETCHED.increment();
+            return render(page);
+        }, PREFETCH));
+    }
+
+    private RenderedPage render(int page) {
+        long start = layout.pageStart(page);
+        long end = layout.pageEnd(page);
+        String text = cache.page(path, fileMetadata, source, start, end);
+        int[] lines = takeLines();
+        int count = 0;
+        int pos = 0;
+        while (pos < text.length()) {
+            int lineEnd = PageLayout.wrapEnd(text, pos);
+            if (2 * count + 2 > lines.length) lines = Arrays.copyOf(lines, lines.length * 2);
+            lines[2 * count] = pos;
+            lines[2 * count + 1] = lineEnd;
+            count++;
+            pos = lineEnd < text.length() && text.charAt(lineEnd) == '\n' ? lineEnd + 1 : lineEnd;
+        }
+        return new RenderedPage(page, start, end, text, lines, count);
+    }
+
+    private int[] takeLines() {
+        synchronized (spareLines) {
+            int[] lines = spareLines.poll();
+            if (lines != null) return lines;
+        }
+        // Страница в pageSize символов занимает не меньше pageSize / LINE_LENGTH строк
+        return new int[2 * Math.max(16, layout.getPageSize() / PageLayout.LINE_LENGTH + 1)];
+    }
+
+    // Готовящаяся страница отменяется (если ещё не начата), готовая возвращает массив строк
+    private void release(CompletableFuture<RenderedPage> future) {
+        if (!future.isDone()) {
+            future.cancel(false);
+            return;
+        }
+        RenderedPage rendered = future.isCompletedExceptionally() ? null : future.join();
+        if (rendered == null) return;
+        synchronized (spareLines) {
+            if (spareLines.size() < SPARE_LINE_BUFFERS) spareLines.push(rendered.lines());
+        }
+    }
+
+    @Override
+    public void close() {
+        window.values().forEach(this::release);
+        window.clear();
+    }
+}
@@ -0,0 +1,423 @@
+package TextDocumentCollection;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Поиск сразу нескольких образцов за один проход по байтам документа.
+// Строки ищутся автоматом Ахо-Корасик, построенным над байтами образцов в кодировке
+// документа: таблица переходов плоская (состояние * 256 + байт), а в корневом состоянии
+// байты, с которых не начинается ни один образец, пропускаются простым циклом по массиву.
+// Автомат строится для каждой встреченной кодировки один раз. Регулярные выражения
+// применяются построчно, декодируется только текущая строка.
+public class PatternSearcher {
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int MAX_LINE = 1 << 20;
+    private static final Metrics.Timer SEARCH_TIME = Metrics.timer("search", "Поиск образцов в документе");
+    private static final Metrics.Counter BYTES_SEARCHED = Metrics.counter("bytes_searched", "Просмотрено байтов при поиске");
+    private static final Metrics.Counter MATCHES_FOUND = Metrics.counter("matches_found", "Найдено совпадений");
+
+    // Параметры поиска: i - без учёта регистра, w - целые слова, r - регулярное выражение
+    public record Options(boolean ignoreCase, boolean wholeWord, boolean regex) {
+        public static final Options DEFAULT = new Options(false, false, false);
+
+        public static Options parse(String flags) {
+            String f = flags.toLowerCase();
+            return new Options(f.contains("i"), f.contains("w"), f.contains("r"));
+        }
+    }
+
+    // Совпадение образца с номером pattern; смещения в байтах, конец не включается
+    public record Match(long start, long end, int pattern) {
+    }
+
+    private final List<String> patterns;
+    private final Options options;
+    private final Map<Charset, Automaton> automata = new ConcurrentHashMap<>();
+
+    private Pattern[] regexes;
+
+    // Автомат для одной кодировки. Образец, который в ней не записать, в автомат не попадает.
+    // В однобайтовой кодировке регистр сворачивается таблицей байтов (lower), длина совпадения
+    // в байтах при этом не меняется; в UTF-8 - через декодирование символа.
+    private static final class Automaton {
+        int[] delta;
+        int[] output;
+        int[] outputLink;
+        int[] patternLengths;
+        boolean[] startBytes;
+        byte[] lower;
+        int maxLength;
+    }
+
+    private PatternSearcher(List<String> patterns, Options options) {
+        this.patterns = List.copyOf(patterns);
+        this.options = options;
+    }
+
+    public static PatternSearcher compile(List<String> patterns, Options options) {
+        if (patterns.isEmpty() || patterns.stream().anyMatch(String::isEmpty)) {
+            throw new IllegalArgumentException("Текст для поиска не может быть пустым");
+        }
+        PatternSearcher searcher = new PatternSearcher(patterns, options);
+        if (options.regex()) {
+            searcher.compileRegexes();
+        } else {
+            searcher.automaton(StandardCharsets.UTF_8);
+        }
+        return searcher;
+    }
+
+    public List<String> getPatterns() {
+        return patterns;
+    }
+
+    public List<Match> findAll(ByteSource source) {
+        long started = System.nanoTime();
+        List<Match> matches = options.regex() ? scanLines(source) : scanBytes(source, automaton(source.charset()));
+        matches.sort(Comparator.comparingLong(Match::start).thenComparingInt(Match::pattern));
+        SEARCH_TIME.recordSince(started);
+        BYTES_SEARCHED.add(source.size());
+        MATCHES_FOUND.add(matches.size());
+        return matches;
+    }
+
+    // Жадно отбрасывает совпадения, перекрывающиеся с более ранними (нужно для замены)
+    public static List<Match> nonOverlapping(List<Match> matches) {
+        List<Match> result = new ArrayList<>();
+        long end = -1;
+        for (Match match : matches) {
+            if (match.start() >= end) {
+                result.add(match);
+                end = match.end();
+            }
+        }
+        return result;
+    }
+
+    private void compileRegexes() {
+        int flags = Pattern.UNICODE_CHARACTER_CLASS;
+        if (options.ignoreCase()) flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        regexes = new Pattern[patterns.size()];
+        for (int i = 0; i < regexes.length; i++) {
+            String regex = options.wholeWord() ? "\\b(?:" + patterns.get(i) + ")\\b" : patterns.get(i);
+            regexes[i] = Pattern.compile(regex, flags);
+        }
+    }
+
+    private Automaton automaton(Charset charset) {
+        return automata.computeIfAbsent(charset, this::buildAutomaton);
+    }
+
+    private Automaton buildAutomaton(Charset charset) {
+        Automaton a = new Automaton();
+        boolean singleByte = TextEncoding.isSingleByte(charset);
+        if (singleByte && options.ignoreCase()) a.lower = lowerCaseTable(charset);
+        int capacity = 1 + patterns.stream().mapToInt(p -> p.length() * 4).sum();
+        int[] trie = new int[capacity << 8];
+        Arrays.fill(trie, -1);
+        int[] output = new int[capacity];
+        Arrays.fill(output, -1);
+        a.patternLengths = new int[patterns.size()];
+        a.startBytes = new boolean[256];
+        int states = 1;
+
+        for (int p = 0; p < patterns.size(); p++) {
+            String pattern = options.ignoreCase() ? fold(patterns.get(p)) : patterns.get(p);
+            byte[] bytes;
+            if (!singleByte) {
+                bytes = pattern.getBytes(StandardCharsets.UTF_8);
+            } else if (TextEncoding.canEncode(pattern, charset)) {
+                bytes = TextEncoding.encode(pattern, charset);
+            } else {
+                continue;
+            }
+            a.patternLengths[p] = bytes.length;
+            a.maxLength = Math.max(a.maxLength, bytes.length);
+            markStartByte(a, bytes[0] & 0xFF);
+            int state = 0;
+            for (byte b : bytes) {
+                int index = (state << 8) | (b & 0xFF);
+                if (trie[index] < 0) trie[index] = states++;
+                state = trie[index];
+            }
+            if (output[state] < 0) output[state] = p;
+        }
+
+        // Обход в ширину: ссылки неудач сразу сворачиваются в полную таблицу переходов
+        int[] delta = Arrays.copyOf(trie, states << 8);
+        output = Arrays.copyOf(output, states);
+        int[] outputLink = new int[states];
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        outputLink[0] = -1;
+        for (int b = 0; b < 256; b++) {
+            int next = delta[b];
+            if (next < 0) {
+                delta[b] = 0;
+            } else {
+                fail[next] = 0;
+                outputLink[next] = -1;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int b = 0; b < 256; b++) {
+                int index = (state << 8) | b;
+                int fallback = delta[(fail[state] << 8) | b];
+                if (delta[index] < 0) {
+                    delta[index] = fallback;
+                } else {
+                    int next = delta[index];
+                    fail[next] = fallback;
+                    outputLink[next] = output[fallback] >= 0 ? fallback : outputLink[fallback];
+                    queue[tail++] = next;
+                }
+            }
+        }
+        a.delta = delta;
+        a.output = output;
+        a.outputLink = outputLink;
+        return a;
+    }
+
+    private void markStartByte(Automaton a, int b) {
+        if (!options.ignoreCase()) {
+            a.startBytes[b] = true;
+        } else if (a.lower != null) {
+            // Образец начинается со строчной буквы - подходят все байты, которые в неё сворачиваются
+            for (int x = 0; x < 256; x++) {
+                if ((a.lower[x] & 0xFF) == b) a.startBytes[x] = true;
+            }
+        } else if (b < 0x80) {
+            a.startBytes[Character.toLowerCase(b)] = true;
+            a.startBytes[Character.toUpperCase(b)] = true;
+        } else {
+            // После свёртки регистра многобайтный символ может начинаться с любого ведущего байта
+            for (int lead = 0xC0; lead < 256; lead++) a.startBytes[lead] = true;
+        }
+    }
+
+    // Байт строчной буквы для каждого байта однобайтовой кодировки
+    private static byte[] lowerCaseTable(Charset charset) {
+        char[] chars = TextEncoding.decodeTable(charset);
+        Map<Character, Integer> codes = new HashMap<>();
+        for (int x = chars.length - 1; x >= 0; x--) codes.put(chars[x], x);
+        byte[] lower = new byte[256];
+        for (int x = 0; x < 256; x++) {
+            Integer code = codes.get(Character.toLowerCase(chars[x]));
+            lower[x] = (byte) (code != null ? code : x);
+        }
+        return lower;
+    }
+
+    private static String fold(String text) {
+        StringBuilder folded = new StringBuilder(text.length());
+        text.codePoints().forEach(cp -> folded.appendCodePoint(Character.toLowerCase(cp)));
+        return folded.toString();
+    }
+
+    private List<Match> scanBytes(ByteSource source, Automaton a) {
+        List<Match> matches = new ArrayList<>();
+        int[] delta = a.delta;
+        int[] output = a.output;
+        int[] outputLink = a.outputLink;
+        boolean[] startBytes = a.startBytes;
+        byte[] lower = a.lower;
+        // Свёртка регистра в UTF-8: длина в байтах может меняться, поэтому для каждого
+        // поданного в автомат байта запоминается смещение исходного символа
+        boolean fold = options.ignoreCase() && lower == null;
+        long size = source.size();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        byte[] encoded = new byte[4];
+        long[] origins = fold ? new long[a.maxLength + 1] : null;
+        long fed = 0;
+        int state = 0;
+
+        long base = 0;
+        while (base < size) {
+            int len = (int) Math.min(chunk.length, size - base);
+            source.get(base, chunk, 0, len);
+            int limit = fold && base + len < size ? completeCharsEnd(chunk, len) : len;
+
+            int i = 0;
+            while (i < limit) {
+                if (state == 0) {
+                    while (i < limit && !startBytes[chunk[i] & 0xFF]) i++;
+                    if (i == limit) break;
+                }
+                if (!fold) {
+                    int b = lower != null ? lower[chunk[i] & 0xFF] & 0xFF : chunk[i] & 0xFF;
+                    state = delta[(state << 8) | b];
+                    i++;
+                    if (output[state] >= 0 || outputLink[state] >= 0) {
+                        report(source, a, matches, state, base + i, null, 0);
+                    }
+                    continue;
+                }
+
+                long charStart = base + i;
+                int b = chunk[i] & 0xFF;
+                int count;
+                if (b < 0x80) {
+                    encoded[0] = (byte) Character.toLowerCase(b);
+                    count = 1;
+                    i++;
+                } else {
+                    int width = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+                    if (width == 1 || i + width > limit) {
+                        // Некорректная последовательность подаётся как есть
+                        encoded[0] = (byte) b;
+                        count = 1;
+                        i++;
+                    } else {
+                        count = encodeUtf8(Character.toLowerCase(decodeUtf8(chunk, i, width)), encoded);
+                        i += width;
+                    }
+                }
+                for (int k = 0; k < count; k++) {
+                    origins[(int) (fed % origins.length)] = charStart;
+                    fed++;
+                    state = delta[(state << 8) | (encoded[k] & 0xFF)];
+                    if (output[state] >= 0 || outputLink[state] >= 0) {
+                        report(source, a, matches, state, base + i, origins, fed);
+                    }
+                }
+            }
+            base += limit;
+        }
+        return matches;
+    }
+
+    private void report(ByteSource source, Automaton a, List<Match> matches, int state, long end, long[] origins, long fed) {
+        int s = a.output[state] >= 0 ? state : a.outputLink[state];
+        while (s >= 0) {
+            int pattern = a.output[s];
+            int length = a.patternLengths[pattern];
+            long start = origins == null ? end - length : origins[(int) ((fed - length) % origins.length)];
+            if (!options.wholeWord() || isWordBoundary(source, start, end)) {
+                matches.add(new Match(start, end, pattern));
+            }
+            s = a.outputLink[s];
+        }
+    }
+
+    private static int decodeUtf8(byte[] bytes, int i, int width) {
+        int cp = bytes[i] & (0xFF >> (width + 1));
+        for (int k = 1; k < width; k++) cp = (cp << 6) | (bytes[i + k] & 0x3F);
+        return cp;
+    }
+
+    private static int encodeUtf8(int cp, byte[] out) {
+        if (cp < 0x80) {
+            out[0] = (byte) cp;
+            return 1;
+        } else if (cp < 0x800) {
+            out[0] = (byte) (0xC0 | (cp >> 6));
+            out[1] = (byte) (0x80 | (cp & 0x3F));
+            return 2;
+        } else if (cp < 0x10000) {
+            out[0] = (byte) (0xE0 | (cp >> 12));
+            out[1] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            out[2] = (byte) (0x80 | (cp & 0x3F));
+            return 3;
+        }
+        out[0] = (byte) (0xF0 | (cp >> 18));
+        out[1] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        out[2] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        out[3] = (byte) (0x80 | (cp & 0x3F));
+        return 4;
+    }
+
+    // Конец последнего целиком попавшего в блок символа UTF-8
+    private static int completeCharsEnd(byte[] chunk, int len) {
+        int lead = len - 1;
+        while (lead > 0 && lead > len - 4 && (chunk[lead] & 0xC0) == 0x80) lead--;
+        int b = chunk[lead] & 0xFF;
+        int width = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+        return lead + width > len ? lead : len;
+    }
+
+    private static boolean isWordBoundary(ByteSource source, long start, long end) {
+        return !isWordChar(codePointBefore(source, start)) && !isWordChar(codePointAt(source, end));
+    }
+
+    private static boolean isWordChar(int cp) {
+        return cp >= 0 && Character.isLetterOrDigit(cp);
+    }
+
+    private static int codePointBefore(ByteSource source, long pos) {
+        if (pos <= 0) return -1;
+        long start = source.alignToChar(pos - 1);
+        return codePointAt(source, start);
+    }
+
+    private static int codePointAt(ByteSource source, long pos) {
+        if (pos >= source.size()) return -1;
+        if (TextEncoding.isSingleByte(source.charset())) {
+            return TextEncoding.decodeTable(source.charset())[source.get(pos) & 0xFF];
+        }
+        byte[] bytes = new byte[(int) Math.min(4, source.size() - pos)];
+        source.get(pos, bytes, 0, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8).codePointAt(0);
+    }
+
+    private List<Match> scanLines(ByteSource source) {
+        List<Match> matches = new ArrayList<>();
+        long size = source.size();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        long lineStart = 0;
+
+        for (long base = 0; base < size; base += chunk.length) {
+            int len = (int) Math.min(chunk.length, size - base);
+            source.get(base, chunk, 0, len);
+            for (int i = 0; i < len; i++) {
+                long pos = base + i;
+                if (chunk[i] == '\n') {
+                    matchLine(source, lineStart, pos, matches);
+                    lineStart = pos + 1;
+                } else if (pos - lineStart >= MAX_LINE) {
+                    // Слишком длинная строка режется на границе символа
+                    long cut = source.alignToChar(pos);
+                    if (cut > lineStart) {
+                        matchLine(source, lineStart, cut, matches);
+                        lineStart = cut;
+                    }
+                }
+            }
+        }
+        if (lineStart < size) matchLine(source, lineStart, size, matches);
+        return matches;
+    }
+
+    private void matchLine(ByteSource source, long lineStart, long lineEnd, List<Match> matches) {
+        String line = source.decode(lineStart, lineEnd);
+        boolean singleByte = TextEncoding.isSingleByte(source.charset());
+        for (int p = 0; p < regexes.length; p++) {
+            Matcher matcher = regexes[p].matcher(line);
+            int charPos = 0;
+            long bytePos = lineStart;
+            while (matcher.find()) {
+                if (matcher.end() == matcher.start()) continue;
+                bytePos += byteLength(line, charPos, matcher.start(), singleByte);
+                long end = bytePos + byteLength(line, matcher.start(), matcher.end(), singleByte);
+                matches.add(new Match(bytePos, end, p));
+                charPos = matcher.start();
+            }
+        }
+    }
+
+    // Длина куска строки в байтах документа
+    private static long byteLength(String s, int from, int to, boolean singleByte) {
+        if (singleByte) return to - from;
+        long length = 0;
+        for (int i = from; i < to; i++) length += SearchIndex.utf8Length(s.charAt(i));
+        return length;
+    }
+}
@@ -0,0 +1,7 @@
+package TextDocumentCollection;
+
+import java.nio.file.Path;
+
+// Совпадение в документе: смещения в байтах, конец не включается
+public record SearchHit(Path document, long start, long end) {
+}
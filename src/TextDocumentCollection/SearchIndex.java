@@ -0,0 +1,483 @@
+package TextDocumentCollection;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+// Инвертированный индекс коллекции: термин -> документ -> позиции.
+// Хранится в корневой папке и при открытии переиндексирует только изменившиеся документы.
+public class SearchIndex {
+    public static final String INDEX_FILE = ".docindex";
+    private static final int MAGIC = 0x54444958; // "TDIX"
+    private static final int VERSION = 4;
+    private static final int READ_BUFFER = 1 << 16;
+
+    // offsets и ends - начало и конец каждого вхождения в байтах документа
+    public record Posting(int docId, int[] positions, long[] offsets, long[] ends) {
+    }
+
+    public record RankedDocument(Path document, double score, List<SearchHit> hits) {
+    }
+
+    private record IndexedDocument(Path path, long size, long modified) {
+    }
+
+    private final Path rootDirectory;
+    private final List<IndexedDocument> documents = new ArrayList<>();
+    private final Map<Path, Integer> documentIds = new HashMap<>();
+    private final Map<String, List<Posting>> postings = new HashMap<>();
+    private static final Metrics.Timer QUERY_TIME = Metrics.timer("index_query", "Запрос к индексу коллекции");
+    private static final Metrics.Timer UPDATE_TIME = Metrics.timer("index_update", "Обновление индекса коллекции");
+
+    private boolean dirty;
+    private long generation; // растёт при каждом изменении содержимого индекса
+
+    private SearchIndex(Path rootDirectory) {
+        this.rootDirectory = rootDirectory;
+    }
+
+    public static SearchIndex open(Path rootDirectory, Collection<DocumentMetadata> documents) throws IOException {
+        SearchIndex index = new SearchIndex(rootDirectory);
+        Path indexFile = rootDirectory.resolve(INDEX_FILE);
+        if (Files.exists(indexFile)) {
+            try {
+                index.load(indexFile);
+            } catch (IOException e) {
+                System.out.println("Индекс повреждён и будет построен заново: " + e.getMessage());
+                index.clear();
+            }
+        }
+        if (index.synchronize(documents)) {
+            index.save();
+        }
+        return index;
+    }
+
+    public synchronized int documentCount() {
+        return documentIds.size();
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized int termCount() {
+        return postings.size();
+    }
+
+    // Приводит индекс к заданному списку документов; возвращает true, если индекс изменился
+    public synchronized boolean synchronize(Collection<DocumentMetadata> current) {
+        Set<Path> currentSet = new HashSet<>();
+        current.forEach(m -> currentSet.add(m.path()));
+        Set<Path> removed = new HashSet<>();
+        documentIds.keySet().forEach(path -> {
+            if (!currentSet.contains(path)) removed.add(path);
+        });
+        return update(current, removed);
+    }
+
+    // Инкрементальное обновление: переиндексируются только переданные документы,
+    // если их размер или дата изменения отличаются от проиндексированных
+    public synchronized void applyChanges(Collection<DocumentMetadata> changed, Set<Path> removed) {
+        if (update(changed, removed)) dirty = true;
+    }
+
+    private boolean update(Collection<DocumentMetadata> changed, Set<Path> removed) {
+        Set<Integer> removedIds = new HashSet<>();
+        for (Path path : removed) {
+            Integer id = documentIds.get(path);
+            if (id != null) removedIds.add(id);
+        }
+
+        List<DocumentMetadata> toIndex = new ArrayList<>();
+        for (DocumentMetadata m : changed) {
+            Integer id = documentIds.get(m.path());
+            if (id != null) {
+                IndexedDocument indexed = documents.get(id);
+                if (indexed.size() == m.size() && indexed.modified() == m.modified()) continue;
+                removedIds.add(id);
+            }
+            toIndex.add(m);
+        }
+
+        if (removedIds.isEmpty() && toIndex.isEmpty()) return false;
+        long started = System.nanoTime();
+        removeDocuments(removedIds);
+        addDocuments(toIndex);
+        generation++;
+        UPDATE_TIME.recordSince(started);
+        return true;
+    }
+
+    // Сохраняет индекс, только если он менялся после последней записи
+    public synchronized void saveIfDirty() throws IOException {
+        if (dirty) save();
+    }
+
+    private void removeDocuments(Set<Integer> ids) {
+        if (ids.isEmpty()) return;
+        for (int id : ids) {
+            documentIds.remove(documents.get(id).path());
+            documents.set(id, null);
+        }
+        Iterator<List<Posting>> it = postings.values().iterator();
+        while (it.hasNext()) {
+            List<Posting> list = it.next();
+            list.removeIf(p -> ids.contains(p.docId()));
+            if (list.isEmpty()) it.remove();
+        }
+    }
+
+    private void addDocuments(List<DocumentMetadata> added) {
+        // Разбор документов идёт параллельно, слияние в общий индекс - последовательно
+        Map<Path, Map<String, Posting>> parsed = added.parallelStream()
+                .collect(Collectors.toConcurrentMap(DocumentMetadata::path, m -> {
+                    try (DocumentFile file = DocumentFile.open(m.path(), m.charset())) {
+                        return tokenize(file);
+                    } catch (IOException | UncheckedIOException e) {
+                        System.out.println("Не удалось проиндексировать " + m.path().getFileName() + ": " + e.getMessage());
+                        return Collections.emptyMap();
+                    }
+                }));
+
+        for (DocumentMetadata m : added) {
+            int id = documents.size();
+            documents.add(new IndexedDocument(m.path(), m.size(), m.modified()));
+            documentIds.put(m.path(), id);
+            parsed.get(m.path()).forEach((term, p) -> postings.computeIfAbsent(term, t -> new ArrayList<>())
+                    .add(new Posting(id, p.positions(), p.offsets(), p.ends())));
+        }
+    }
+
+    // Разбор потоком по байтам: документ не собирается в одну строку, а начало и конец слова -
+    // смещения байтов, из которых оно прочитано. Повреждённая последовательность UTF-8 -
+    // один байт и символ U+FFFD, как при разметке страниц.
+    private static Map<String, Posting> tokenize(ByteSource source) {
+        Map<String, List<long[]>> occurrences = new HashMap<>();
+        char[] table = TextEncoding.isSingleByte(source.charset()) ? TextEncoding.decodeTable(source.charset()) : null;
+        long size = source.size();
+        byte[] buffer = new byte[READ_BUFFER];
+        long bufferStart = 0;
+        int bufferLength = 0;
+        int position = 0;
+        long wordStart = 0;
+        StringBuilder word = new StringBuilder();
+        long pos = 0;
+        while (pos < size) {
+            int i = (int) (pos - bufferStart);
+            // Последовательность UTF-8 не должна обрываться на конце буфера
+            if (i + 4 > bufferLength && bufferStart + bufferLength < size) {
+                bufferStart = pos;
+                bufferLength = (int) Math.min(buffer.length, size - pos);
+                source.get(pos, buffer, 0, bufferLength);
+                i = 0;
+            }
+            int codePoint;
+            int width = 1;
+            if (table != null) {
+                codePoint = table[buffer[i] & 0xFF];
+            } else {
+                codePoint = utf8CodePoint(buffer, i, bufferLength);
+                if (codePoint < 0) {
+                    codePoint = 0xFFFD;
+                } else {
+                    width = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+                }
+            }
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (word.isEmpty()) wordStart = pos;
+                word.appendCodePoint(codePoint);
+            } else if (!word.isEmpty()) {
+                occurrences.computeIfAbsent(word.toString().toLowerCase(), t -> new ArrayList<>())
+                        .add(new long[]{position++, wordStart, pos});
+                word.setLength(0);
+            }
+            pos += width;
+        }
+        if (!word.isEmpty()) {
+            occurrences.computeIfAbsent(word.toString().toLowerCase(), t -> new ArrayList<>())
+                    .add(new long[]{position, wordStart, pos});
+        }
+
+        Map<String, Posting> result = new HashMap<>();
+        occurrences.forEach((term, list) -> {
+            int[] positions = new int[list.size()];
+            long[] offsets = new long[list.size()];
+            long[] ends = new long[list.size()];
+            for (int k = 0; k < list.size(); k++) {
+                positions[k] = (int) list.get(k)[0];
+                offsets[k] = list.get(k)[1];
+                ends[k] = list.get(k)[2];
+            }
+            result.put(term, new Posting(-1, positions, offsets, ends));
+        });
+        return result;
+    }
+
+    // Символ, закодированный в UTF-8 с bytes[i]; -1, если последовательность неполна или неверна
+    private static int utf8CodePoint(byte[] bytes, int i, int length) {
+        int b = bytes[i];
+        if (b >= 0) return b;
+        int width;
+        int codePoint;
+        int min;
+        if ((b & 0xE0) == 0xC0) {
+            width = 2;
+            codePoint = b & 0x1F;
+            min = 0x80;
+        } else if ((b & 0xF0) == 0xE0) {
+            width = 3;
+            codePoint = b & 0x0F;
+            min = 0x800;
+        } else if ((b & 0xF8) == 0xF0) {
+            width = 4;
+            codePoint = b & 0x07;
+            min = 0x10000;
+        } else {
+            return -1;
+        }
+        if (i + width > length) return -1;
+        for (int k = 1; k < width; k++) {
+            int next = bytes[i + k];
+            if ((next & 0xC0) != 0x80) return -1;
+            codePoint = (codePoint << 6) | (next & 0x3F);
+        }
+        // Избыточная запись, суррогат или значение вне Unicode - тоже ошибка
+        if (codePoint < min || codePoint > Character.MAX_CODE_POINT ||
+                (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            return -1;
+        }
+        return codePoint;
+    }
+
+    static int utf8Length(char c) {
+        if (c < 0x80) return 1;
+        if (c < 0x800) return 2;
+        if (Character.isSurrogate(c)) return 2; // пара суррогатов - 4 байта
+        return 3;
+    }
+
+    public static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            // По символам, а не по char: так же режется на слова документ
+            if (!Character.isLetterOrDigit(text.codePointAt(i))) {
+                i += Character.charCount(text.codePointAt(i));
+                continue;
+            }
+            int start = i;
+            while (i < text.length() && Character.isLetterOrDigit(text.codePointAt(i))) {
+                i += Character.charCount(text.codePointAt(i));
+            }
+            terms.add(text.substring(start, i).toLowerCase());
+        }
+        return terms;
+    }
+
+    // Запрос: слова и фразы в кавычках; документ должен содержать все слова и фразы
+    public synchronized List<RankedDocument> search(String query) {
+        List<List<String>> phrases = parseQuery(query);
+        if (phrases.isEmpty()) return Collections.emptyList();
+
+        Map<Integer, Double> scores = null;
+        Map<Integer, List<long[]>> matches = new HashMap<>();
+        for (List<String> phrase : phrases) {
+            Map<Integer, List<long[]>> phraseMatches = matchPhrase(phrase);
+            if (phraseMatches.isEmpty()) return Collections.emptyList();
+            double idf = phrase.stream()
+                    .mapToDouble(t -> Math.log(1.0 + (double) documentIds.size() / postings.get(t).size()))
+                    .sum();
+
+            Map<Integer, Double> phraseScores = new HashMap<>();
+            phraseMatches.forEach((id, list) -> phraseScores.put(id, list.size() * idf));
+            if (scores == null) {
+                scores = phraseScores;
+            } else {
+                scores.keySet().retainAll(phraseScores.keySet());
+                scores.replaceAll((id, s) -> s + phraseScores.get(id));
+            }
+            phraseMatches.forEach((id, list) -> matches.computeIfAbsent(id, k -> new ArrayList<>()).addAll(list));
+            if (scores.isEmpty()) return Collections.emptyList();
+        }
+
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<Integer, Double>comparingByValue().reversed())
+                .map(e -> {
+                    Path path = documents.get(e.getKey()).path();
+                    List<SearchHit> hits = matches.get(e.getKey()).stream()
+                            .sorted(Comparator.comparingLong(m -> m[0]))
+                            .map(m -> new SearchHit(path, m[0], m[1]))
+                            .collect(Collectors.toList());
+                    return new RankedDocument(path, e.getValue(), hits);
+                })
+                .collect(Collectors.toList());
+    }
+
+    private static List<List<String>> parseQuery(String query) {
+        List<List<String>> phrases = new ArrayList<>();
+        String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++) {
+            List<String> terms = terms(parts[i]);
+            if (i % 2 == 1) {
+                if (!terms.isEmpty()) phrases.add(terms);
+            } else {
+                terms.forEach(t -> phrases.add(List.of(t)));
+            }
+        }
+        return phrases;
+    }
+
+    // Для каждого документа - список [начало, конец] вхождений фразы в байтах
+    private Map<Integer, List<long[]>> matchPhrase(List<String> phrase) {
+        List<List<Posting>> lists = new ArrayList<>();
+        for (String term : phrase) {
+            List<Posting> list = postings.get(term);
+            if (list == null) return Collections.emptyMap();
+            lists.add(list);
+        }
+
+        Map<Integer, List<long[]>> result = new HashMap<>();
+        List<Posting> first = lists.get(0);
+        outer:
+        for (Posting posting : first) {
+            Posting[] chain = new Posting[phrase.size()];
+            chain[0] = posting;
+            for (int k = 1; k < chain.length; k++) {
+                chain[k] = find(lists.get(k), posting.docId());
+                if (chain[k] == null) continue outer;
+            }
+
+            List<long[]> found = new ArrayList<>();
+            for (int p = 0; p < posting.positions().length; p++) {
+                int position = posting.positions()[p];
+                int lastIndex = p;
+                boolean match = true;
+                for (int k = 1; k < chain.length && match; k++) {
+                    lastIndex = Arrays.binarySearch(chain[k].positions(), position + k);
+                    match = lastIndex >= 0;
+                }
+                if (match) {
+                    found.add(new long[]{posting.offsets()[p], chain[chain.length - 1].ends()[lastIndex]});
+                }
+            }
+            if (!found.isEmpty()) result.put(posting.docId(), found);
+        }
+        return result;
+    }
+
+    // Списки отсортированы по docId: новые документы всегда получают больший идентификатор
+    private static Posting find(List<Posting> list, int docId) {
+        int low = 0;
+        int high = list.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = list.get(mid).docId();
+            if (id < docId) low = mid + 1;
+            else if (id > docId) high = mid - 1;
+            else return list.get(mid);
+        }
+        return null;
+    }
+
+
+    private void clear() {
+        documents.clear();
+        documentIds.clear();
+        postings.clear();
+    }
+
+    public synchronized void save() throws IOException {
+        Path indexFile = rootDirectory.resolve(INDEX_FILE);
+        Path tmp = rootDirectory.resolve(INDEX_FILE + ".tmp");
+
+        // Идентификаторы удалённых документов уплотняются при записи
+        int[] remap = new int[documents.size()];
+        List<IndexedDocument> live = new ArrayList<>();
+        for (int i = 0; i < documents.size(); i++) {
+            remap[i] = documents.get(i) == null ? -1 : live.size();
+            if (documents.get(i) != null) live.add(documents.get(i));
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(live.size());
+            for (IndexedDocument doc : live) {
+                writeString(out, rootDirectory.relativize(doc.path()).toString());
+                out.writeLong(doc.size());
+                out.writeLong(doc.modified());
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<String, List<Posting>> entry : postings.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (Posting posting : entry.getValue()) {
+                    out.writeInt(remap[posting.docId()]);
+                    out.writeInt(posting.positions().length);
+                    for (int k = 0; k < posting.positions().length; k++) {
+                        out.writeInt(posting.positions()[k]);
+                        out.writeLong(posting.offsets()[k]);
+                        out.writeLong(posting.ends()[k]);
+                    }
+                }
+            }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    private void load(Path indexFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("неизвестный формат индекса");
+            }
+            int docCount = in.readInt();
+            for (int i = 0; i < docCount; i++) {
+                Path path = rootDirectory.resolve(readString(in));
+                long size = in.readLong();
+                long modified = in.readLong();
+                documents.add(new IndexedDocument(path, size, modified));
+                documentIds.put(path, i);
+            }
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                String term = readString(in);
+                int count = in.readInt();
+                List<Posting> list = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) {
+                    int docId = in.readInt();
+                    int n = in.readInt();
+                    int[] positions = new int[n];
+                    long[] offsets = new long[n];
+                    long[] ends = new long[n];
+                    for (int k = 0; k < n; k++) {
+                        positions[k] = in.readInt();
+                        offsets[k] = in.readLong();
+                        ends[k] = in.readLong();
+                    }
+                    list.add(new Posting(docId, positions, offsets, ends));
+                }
+                postings.put(term, list);
+            }
+        }
+    }
+
+    // Строки - длина в байтах и UTF-8: writeUTF ограничен 64 КБ, а термином может стать
+    // сколь угодно длинная последовательность букв
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        // Длина из повреждённого файла не должна приводить к выделению огромного массива
+        byte[] bytes = length < 0 ? null : in.readNBytes(length);
+        if (bytes == null || bytes.length != length) throw new IOException("неверная длина строки в индексе");
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
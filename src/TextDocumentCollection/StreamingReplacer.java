@@ -0,0 +1,68 @@
+package TextDocumentCollection;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.List;
+
+// Замена потоком: совпадения PatternSearcher заменяются байтами без декодирования документа,
+// результат пишется блоками по CHUNK_SIZE байтов во временный файл и атомарно подменяет исходный.
+// Смещения совпадений - в байтах от начала документа.
+// Документ пишется в своей кодировке; символ замены, которого в ней нет, - ошибка записи.
+public class StreamingReplacer {
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("bytes_written", "Записано байтов документов");
+
+    // Замена всех непересекающихся совпадений searcher за один проход по байтам; возвращает число замен
+    public long replaceMatches(Path document, Charset charset, PatternSearcher searcher, String replaceText)
+            throws IOException {
+        byte[] replacement = TextEncoding.encode(replaceText, charset);
+        Path directory = document.toAbsolutePath().getParent();
+        Path tmp = null;
+        try (DocumentFile source = DocumentFile.open(document, charset)) {
+            List<PatternSearcher.Match> matches = PatternSearcher.nonOverlapping(searcher.findAll(source));
+            if (matches.isEmpty()) return 0;
+            tmp = Files.createTempFile(directory, "." + document.getFileName(), ".tmp");
+            try (OutputStream out = new BufferedOutputStream(DocumentFile.newOutputStream(tmp, document), CHUNK_SIZE)) {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                long position = 0;
+                for (PatternSearcher.Match match : matches) {
+                    copy(source, out, buffer, position, match.start());
+                    out.write(replacement);
+                    position = match.end();
+                }
+                copy(source, out, buffer, position, source.size());
+            }
+            prepareReplacement(tmp, document);
+            BYTES_WRITTEN.add(Files.size(tmp));
+            Files.move(tmp, document, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return matches.size();
+        } finally {
+            if (tmp != null) Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void copy(ByteSource source, OutputStream out, byte[] buffer, long from, long to) throws IOException {
+        for (long pos = from; pos < to; pos += buffer.length) {
+            int len = (int) Math.min(buffer.length, to - pos);
+            source.get(pos, buffer, 0, len);
+            out.write(buffer, 0, len);
+        }
+    }
+
+    // Временный файл создаётся с правами 0600: перед подменой он получает права документа
+    // и сбрасывается на диск, чтобы после сбоя на месте документа не оказался пустой файл
+    private static void prepareReplacement(Path tmp, Path document) throws IOException {
+        try {
+            Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(document));
+        } catch (UnsupportedOperationException e) {
+            // права доступа остаются по умолчанию
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package TextDocumentCollection;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 public class TextDocumentCollectionApp {
@@ -9,9 +12,11 @@ public class TextDocumentCollectionApp {
     private DocumentViewer documentViewer;
     private DocumentEditor documentEditor;
     private Scanner scanner;
+    private MetricsEndpoint metricsEndpoint;
 
     public TextDocumentCollectionApp() {
         this.scanner = new Scanner(System.in);
+        Metrics.registerMBeans();
         this.documentManager = new DocumentManager(Paths.get(System.getProperty("user.dir")));
         this.documentViewer = new DocumentViewer(documentManager, scanner);
         this.documentEditor = new DocumentEditor(documentManager, scanner);
@@ -20,6 +25,7 @@ public class TextDocumentCollectionApp {
     public void run() {
         System.out.println("Добро пожаловать в приложение 'Коллекция текстовых документов'");
         System.out.println("Текущая корневая папка: " + documentManager.getRootDirectory());
+        metricsEndpoint = MetricsEndpoint.startIfConfigured();
 
         while (true) {
             printMenu();
@@ -28,13 +34,17 @@ public class TextDocumentCollectionApp {
             try {
                 switch (command) {
                     case "1":
-                        setRootDirectory();
+                        if (documentEditor.resolveUnsavedChanges()) {
+                            setRootDirectory();
+                        }
                         break;
                     case "2":
                         documentManager.listDocuments();
                         break;
                     case "3":
-                        documentViewer.openDocument();
+                        if (documentEditor.resolveUnsavedChanges()) {
+                            documentViewer.openDocument();
+                        }
                         break;
                     case "4":
                         documentEditor.createNewDocument();
@@ -57,8 +67,41 @@ public class TextDocumentCollectionApp {
                     case "10":
                         documentViewer.setOutputMode(!documentViewer.isOutputToFile());
                         break;
+                    case "11":
+                        documentViewer.searchInCollection();
+                        break;
+                    case "12":
+                        if (documentEditor.resolveUnsavedChanges()) {
+                            configureScanner();
+                        }
+                        break;
+                    case "13":
+                        documentEditor.saveDocument();
+                        break;
+                    case "14":
+                        documentEditor.undoEdit();
+                        break;
+                    case "15":
+                        documentEditor.redoEdit();
+                        break;
+                    case "16":
+                        configureCache();
+                        break;
+                    case "17":
+                        showStatistics();
+                        break;
+                    case "18":
+                        documentEditor.importDocuments();
+                        break;
+                    case "19":
+                        showDuplicates();
+                        break;
                     case "0":
+                        if (!documentEditor.resolveUnsavedChanges()) break;
                         System.out.println("Выход из программы...");
+                        documentViewer.close();
+                        documentManager.close();
+                        if (metricsEndpoint != null) metricsEndpoint.stop();
                         return;
                     default:
                         System.out.println("Неизвестная команда. Попробуйте снова.");
@@ -81,6 +124,15 @@ public class TextDocumentCollectionApp {
         System.out.println("8. Сортировать коллекцию");
         System.out.println("9. Установить размер страницы");
         System.out.println("10. Переключить вывод (консоль/файл)");
+        System.out.println("11. Поиск по коллекции");
+        System.out.println("12. Настроить сканирование (глубина, маски файлов)");
+        System.out.println("13. Сохранить документ");
+        System.out.println("14. Отменить правку");
+        System.out.println("15. Повторить правку");
+        System.out.println("16. Статистика и размер кэша");
+        System.out.println("17. Статистика коллекции");
+        System.out.println("18. Импорт документов (JSON Lines или zip)");
+        System.out.println("19. Поиск почти одинаковых документов");
         System.out.println("0. Выход");
         System.out.print("Выберите команду: ");
     }
@@ -91,4 +143,95 @@ public class TextDocumentCollectionApp {
         documentManager.setRootDirectory(Paths.get(newPath));
         System.out.println("Корневая папка установлена: " + documentManager.getRootDirectory());
     }
-}
\ No newline at end of file
+
+    private void configureScanner() throws IOException {
+        DocumentScanner current = documentManager.getScanner();
+        System.out.println("Текущая глубина: " + (current.getMaxDepth() == DocumentScanner.UNLIMITED_DEPTH ?
+                "без ограничений" : current.getMaxDepth()) + ", маски: " + String.join(", ", current.getPatterns()));
+
+        System.out.print("Введите глубину сканирования (пустая строка - без ограничений): ");
+        String depthInput = scanner.nextLine().trim();
+        int depth = depthInput.isEmpty() ? DocumentScanner.UNLIMITED_DEPTH : Integer.parseInt(depthInput);
+
+        System.out.print("Введите маски файлов через запятую (например *.txt, docs/**.log): ");
+        String patternsInput = scanner.nextLine().trim();
+        List<String> patterns = patternsInput.isEmpty() ? current.getPatterns() :
+                Arrays.stream(patternsInput.split(",")).map(String::trim).filter(p -> !p.isEmpty()).toList();
+
+        documentManager.setScanner(new DocumentScanner(depth, patterns));
+        System.out.println("Найдено документов: " + documentManager.getDocuments().size());
+    }
+
+    private void showStatistics() {
+        System.out.print("Сколько самых частых слов показать (по умолчанию 10): ");
+        String input = scanner.nextLine().trim();
+        int top = input.isEmpty() ? 10 : Integer.parseInt(input);
+
+        CollectionStatistics.Summary summary = documentManager.getStatistics().summary(top);
+        System.out.println("\nСтатистика коллекции:");
+        System.out.println("Документов: " + summary.documents());
+        System.out.println("Объём: " + summary.bytes() + " байт");
+        System.out.println("Строк: " + summary.lines() + ", слов: " + summary.words() +
+                ", различных слов: " + summary.uniqueTerms());
+
+        System.out.println("\nСамые частые слова:");
+        summary.topTerms().forEach(c -> System.out.println("  " + c.key() + ": " + c.count()));
+        System.out.println("\nДокументов по авторам:");
+        printHistogram(summary.authors());
+        System.out.println("\nДокументов по месяцам изменения:");
+        printHistogram(summary.months());
+    }
+
+    private void showDuplicates() throws IOException {
+        System.out.print("Порог сходства от 0 до 1 (по умолчанию " + DuplicateDetector.DEFAULT_THRESHOLD + "): ");
+        String input = scanner.nextLine().trim();
+        double threshold = input.isEmpty() ? DuplicateDetector.DEFAULT_THRESHOLD : Double.parseDouble(input);
+        if (!(threshold > 0 && threshold <= 1)) {
+            System.out.println("Порог должен быть числом от 0 до 1");
+            return;
+        }
+
+        List<DuplicateDetector.Cluster> clusters = documentManager.getDuplicateDetector().clusters(threshold);
+        if (clusters.isEmpty()) {
+            System.out.println("Почти одинаковых документов не найдено");
+            return;
+        }
+        Path root = documentManager.getRootDirectory();
+        for (int i = 0; i < clusters.size(); i++) {
+            DuplicateDetector.Cluster cluster = clusters.get(i);
+            System.out.printf("%nГруппа %d (документов: %d, сходство не ниже %.0f%%):%n",
+                    i + 1, cluster.documents().size(), cluster.similarity() * 100);
+            cluster.documents().forEach(p -> System.out.println("  " + root.relativize(p)));
+        }
+    }
+
+    private void printHistogram(List<CollectionStatistics.Count> counts) {
+        int max = counts.stream().mapToInt(CollectionStatistics.Count::count).max().orElse(1);
+        for (CollectionStatistics.Count c : counts) {
+            String key = c.key().isEmpty() ? "не указан" : c.key();
+            String bar = "#".repeat(Math.max(1, (int) Math.round(30.0 * c.count() / max)));
+            System.out.printf("  %-20s %6d %s%n", key, c.count(), bar);
+        }
+    }
+
+    private void configureCache() {
+        DocumentCache cache = documentManager.getCache();
+        DocumentCache.Stats stats = cache.stats();
+        System.out.printf("Попаданий: %d, промахов: %d (%.1f%% попаданий), вытеснено: %d%n",
+                stats.hits(), stats.misses(), stats.hitRate() * 100, stats.evictions());
+        System.out.printf("Записей: %d, занято: %.1f из %d МБ%n",
+                stats.entries(), stats.weight() / (double) (1 << 20), stats.capacity() >> 20);
+
+        System.out.print("Новый размер кэша в МБ (пустая строка - без изменений): ");
+        String input = scanner.nextLine().trim();
+        if (input.isEmpty()) return;
+        try {
+            long megabytes = Long.parseLong(input);
+            if (megabytes < 0) throw new NumberFormatException();
+            cache.setCapacity(megabytes << 20);
+            System.out.println("Размер кэша установлен: " + megabytes + " МБ");
+        } catch (NumberFormatException e) {
+            System.out.println("Неверный формат числа");
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package TextDocumentCollection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Кодировки документов: UTF-8 и однобайтовые кириллические (Windows-1251, KOI8-R).
+// Кодировка определяется один раз по началу файла и хранится в DocumentMetadata;
+// дальше документ обрабатывается как байты, а в символы декодируются только показываемые куски.
+public final class TextEncoding {
+    public static final int SAMPLE_BYTES = 16 * 1024;
+    private static final List<Charset> LEGACY = legacyCharsets("windows-1251", "KOI8-R");
+    // Самые частые буквы русского текста
+    private static final String FREQUENT = "оеаинтсрвлкмдпу";
+    private static final Map<Charset, char[]> decodeTables = new ConcurrentHashMap<>();
+    private static final Map<Charset, Boolean> singleByte = new ConcurrentHashMap<>();
+
+    private TextEncoding() {
+    }
+
+    private static List<Charset> legacyCharsets(String... names) {
+        List<Charset> result = new ArrayList<>();
+        for (String name : names) {
+            if (Charset.isSupported(name)) result.add(Charset.forName(name));
+        }
+        return List.copyOf(result);
+    }
+
+    public static Charset detect(Path path) {
+        try (InputStream in = DocumentFile.newInputStream(path)) {
+            return detect(in.readNBytes(SAMPLE_BYTES), SAMPLE_BYTES);
+        } catch (IOException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    // sample - начало файла; если он короче limit, это весь файл.
+    // Корректный UTF-8 (в том числе чистый ASCII) считается UTF-8, иначе из однобайтовых
+    // кодировок выбирается та, в которой текст больше похож на русский.
+    public static Charset detect(byte[] sample, int limit) {
+        if (LEGACY.isEmpty() || isUtf8(sample, sample.length >= limit)) return StandardCharsets.UTF_8;
+        Charset best = LEGACY.get(0);
+        long bestScore = Long.MIN_VALUE;
+        for (Charset charset : LEGACY) {
+            long score = score(sample, decodeTable(charset));
+            if (score > bestScore) {
+                best = charset;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    // truncated - последовательность могла оборваться на границе выборки
+    private static boolean isUtf8(byte[] bytes, boolean truncated) {
+        int i = 0;
+        while (i < bytes.length) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            int width = b >= 0xF0 && b <= 0xF4 ? 4 : b >= 0xE0 && b < 0xF0 ? 3 : b >= 0xC2 && b < 0xE0 ? 2 : 0;
+            if (width == 0) return false;
+            for (int k = 1; k < width; k++) {
+                if (i + k >= bytes.length) return truncated;
+                if ((bytes[i + k] & 0xC0) != 0x80) return false;
+            }
+            i += width;
+        }
+        return true;
+    }
+
+    // Строчные буквы в начале и середине слов, частые буквы - плюс; заглавная после строчной - минус
+    private static long score(byte[] sample, char[] table) {
+        long score = 0;
+        char previous = ' ';
+        for (byte b : sample) {
+            char c = table[b & 0xFF];
+            if (b >= 0) {
+                previous = c;
+                continue;
+            }
+            if (Character.UnicodeBlock.of(c) != Character.UnicodeBlock.CYRILLIC) {
+                score -= 2;
+            } else if (Character.isLowerCase(c)) {
+                score += FREQUENT.indexOf(c) >= 0 ? 3 : 1;
+            } else if (Character.isLetter(previous) && Character.isLowerCase(previous)) {
+                score -= 3;
+            }
+            previous = c;
+        }
+        return score;
+    }
+
+    public static boolean isSingleByte(Charset charset) {
+        return singleByte.computeIfAbsent(charset, cs ->
+                !cs.equals(StandardCharsets.UTF_8) && cs.canEncode() && cs.newEncoder().maxBytesPerChar() == 1.0f);
+    }
+
+    // Символы для всех 256 значений байта однобайтовой кодировки
+    public static char[] decodeTable(Charset charset) {
+        return decodeTables.computeIfAbsent(charset, cs -> {
+            byte[] all = new byte[256];
+            for (int i = 0; i < all.length; i++) all[i] = (byte) i;
+            char[] table = new String(all, cs).toCharArray();
+            if (table.length != 256) throw new IllegalArgumentException("Кодировка " + cs + " не однобайтовая");
+            return table;
+        });
+    }
+
+    // Длина текста в байтах кодировки charset (символы, которых в ней нет, - как при декодировании)
+    public static long byteLength(CharSequence text, Charset charset) {
+        if (isSingleByte(charset)) return text.length();
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) length += SearchIndex.utf8Length(text.charAt(i));
+        return length;
+    }
+
+    // Текст в кодировке документа; символ, которого в ней нет, - ошибка, а не молчаливая замена на '?'
+    public static byte[] encode(String text, Charset charset) {
+        try {
+            ByteBuffer encoded = newEncoder(charset).encode(CharBuffer.wrap(text));
+            byte[] bytes = new byte[encoded.remaining()];
+            encoded.get(bytes);
+            return bytes;
+        } catch (CharacterCodingException e) {
+            throw new IllegalArgumentException("Текст содержит символы, которых нет в кодировке документа " + charset.name());
+        }
+    }
+
+    public static boolean canEncode(String text, Charset charset) {
+        return charset.newEncoder().canEncode(text);
+    }
+
+    public static CharsetEncoder newEncoder(Charset charset) {
+        return charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+}
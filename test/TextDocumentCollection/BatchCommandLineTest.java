@@ -0,0 +1,65 @@
+package TextDocumentCollection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchCommandLineTest {
+    @TempDir
+    Path root;
+
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    private int run(String... args) {
+        BatchCommandLine cli = new BatchCommandLine(new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8),
+                new PrintStream(err, true, StandardCharsets.UTF_8));
+        String[] all = new String[args.length + 2];
+        System.arraycopy(args, 0, all, 0, args.length);
+        all[args.length] = "--root";
+        all[args.length + 1] = root.toString();
+        return cli.run(all);
+    }
+
+    @Test
+    void compressAndDecompressRoundTrip() throws Exception {
+        String text = "строка документа\n".repeat(10_000);
+        Path plain = Files.writeString(root.resolve("a.txt"), text);
+        Files.setPosixFilePermissions(plain, PosixFilePermissions.fromString("rw-r-----"));
+        FileTime modified = FileTime.fromMillis(1_600_000_000_000L);
+        Files.setLastModifiedTime(plain, modified);
+
+        assertEquals(0, run("compress"));
+        assertFalse(Files.exists(plain));
+        assertTrue(Files.exists(root.resolve("a.txtz")));
+
+        assertEquals(0, run("decompress"));
+        assertFalse(Files.exists(root.resolve("a.txtz")));
+        assertEquals(text, Files.readString(plain));
+        assertEquals(modified, Files.getLastModifiedTime(plain));
+        assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(plain)));
+        try (var files = Files.list(root)) {
+            assertEquals(1, files.count(), "временные файлы должны быть удалены");
+        }
+    }
+
+    @Test
+    void existingTargetIsNeitherOverwrittenNorSourceDeleted() throws Exception {
+        Files.writeString(root.resolve("a.txt"), "текст");
+        assertEquals(0, run("compress"));
+        Files.writeString(root.resolve("a.txt"), "другой документ");
+
+        assertEquals(0, run("decompress"));
+        assertEquals("другой документ", Files.readString(root.resolve("a.txt")));
+        assertTrue(Files.exists(root.resolve("a.txtz")));
+        assertTrue(err.toString(StandardCharsets.UTF_8).contains("уже существует"));
+    }
+}
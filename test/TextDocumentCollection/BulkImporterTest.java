@@ -0,0 +1,80 @@
+package TextDocumentCollection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkImporterTest {
+    @TempDir
+    Path root;
+
+    private final List<Path> registered = new CopyOnWriteArrayList<>();
+
+    private BulkImporter importer() {
+        return new BulkImporter(root, 2, 4, registered::addAll, new PrintStream(new ByteArrayOutputStream()));
+    }
+
+    private static InputStream input(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void jsonLinesTextIsCompressedForTxtzNames() throws Exception {
+        BulkImporter.Result result = importer().importJsonLines(input("""
+                {"path": "docs/a.txtz", "text": "сжатый текст"}
+                {"path": "b", "text": "обычный текст"}
+                """));
+
+        assertEquals(2, result.imported());
+        assertEquals(0, result.failed());
+        Path compressed = root.resolve("docs/a.txtz");
+        try (InputStream in = DocumentFile.newInputStream(compressed)) {
+            assertEquals("сжатый текст", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertEquals("обычный текст", Files.readString(root.resolve("b.txt")));
+        assertEquals(2, registered.size());
+    }
+
+    @Test
+    void zipEntriesWithoutSizeInHeaderAreImported() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            // Сжатые записи пишутся потоком: размер становится известен только после данных
+            zip.putNextEntry(new ZipEntry("c.txt"));
+            zip.write("текст из архива".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("skip.bin"));
+            zip.write(1);
+            zip.closeEntry();
+        }
+
+        BulkImporter.Result result = importer().importZip(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertEquals(1, result.imported());
+        assertEquals("текст из архива", Files.readString(root.resolve("c.txt")));
+        assertFalse(Files.exists(root.resolve("skip.bin")));
+    }
+
+    @Test
+    void existingDocumentsAreSkipped() throws Exception {
+        Files.writeString(root.resolve("a.txt"), "старый");
+        BulkImporter.Result result = importer().importJsonLines(input("{\"path\": \"a.txt\", \"text\": \"новый\"}\n"));
+
+        assertEquals(0, result.imported());
+        assertEquals(1, result.skipped());
+        assertEquals("старый", Files.readString(root.resolve("a.txt")));
+    }
+}
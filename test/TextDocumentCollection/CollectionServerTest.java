@@ -0,0 +1,92 @@
+package TextDocumentCollection;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Буфер документа живёт, пока документ открыт хотя бы в одной сессии
+class CollectionServerTest {
+    @TempDir
+    Path root;
+
+    private DocumentManager manager;
+    private CollectionServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void start() throws IOException {
+        Files.writeString(root.resolve("a.txt"), "первый документ");
+        Files.writeString(root.resolve("b.txt"), "второй документ");
+        manager = new DocumentManager(root);
+        server = CollectionServer.start(manager, new InetSocketAddress("localhost", 0));
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        server.stop();
+        manager.close();
+    }
+
+    private String call(String method, String path, String query) throws Exception {
+        URI uri = URI.create("http://localhost:" + server.getPort() + path + "?" + query);
+        HttpRequest request = HttpRequest.newBuilder(uri).method(method, HttpRequest.BodyPublishers.noBody()).build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode(), response.body());
+        return response.body();
+    }
+
+    private String session() throws Exception {
+        Object id = ((Map<?, ?>) Json.parse(call("POST", "/session", ""))).get("session");
+        return "session=" + id;
+    }
+
+    private String open(String session, String document) throws Exception {
+        return call("POST", "/open", session + "&document=" + URLEncoder.encode(document, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void buffersAreClosedWhenNoSessionHasTheDocumentOpen() throws Exception {
+        String first = session();
+        String second = session();
+        open(first, "a.txt");
+        open(second, "a.txt");
+        assertEquals(1, server.openBuffers());
+
+        open(first, "b.txt");
+        assertEquals(2, server.openBuffers());
+        open(first, "b.txt");
+        assertEquals(2, server.openBuffers());
+
+        call("POST", "/close", second);
+        assertEquals(1, server.openBuffers());
+        call("POST", "/close", first);
+        assertEquals(0, server.openBuffers());
+    }
+
+    @Test
+    void replaceKeepsTheSessionBuffer() throws Exception {
+        String session = session();
+        open(session, "a.txt");
+        call("POST", "/replace", session + "&find=" + URLEncoder.encode("первый", StandardCharsets.UTF_8) +
+                "&replace=" + URLEncoder.encode("1-й", StandardCharsets.UTF_8));
+        assertEquals("1-й документ", Files.readString(root.resolve("a.txt")));
+        assertEquals(1, server.openBuffers());
+        call("POST", "/close", session);
+        assertEquals(0, server.openBuffers());
+    }
+}
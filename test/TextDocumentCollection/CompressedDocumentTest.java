@@ -0,0 +1,69 @@
+package TextDocumentCollection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Сжатый документ проходит весь путь сканирования: метаданные, определение кодировки и чтение
+class CompressedDocumentTest {
+    private static final Charset CP1251 = Charset.forName("windows-1251");
+    private static final String TEXT = "Автор: Иванов\nСодержание документа на русском языке.\n".repeat(2000);
+
+    @TempDir
+    Path root;
+
+    private Path writeCompressed(String name, byte[] content) throws IOException {
+        Path path = root.resolve(name);
+        try (OutputStream out = CompressedDocument.newOutputStream(path, 4096)) {
+            out.write(content);
+        }
+        return path;
+    }
+
+    @Test
+    void scanDetectsCharsetAndAuthorOfCompressedDocument() throws IOException {
+        Path path = writeCompressed("legacy" + CompressedDocument.EXTENSION, TEXT.getBytes(CP1251));
+
+        DocumentScanner.ScanResult result = new DocumentScanner(DocumentScanner.UNLIMITED_DEPTH,
+                DocumentScanner.DEFAULT_PATTERNS).scan(root);
+
+        assertEquals(1, result.documents().size());
+        DocumentMetadata metadata = result.documents().get(0);
+        assertEquals(path, metadata.path());
+        assertEquals(CP1251, metadata.charset());
+        assertEquals("Иванов", metadata.author());
+    }
+
+    @Test
+    void openWithoutCharsetRoundTrips() throws IOException {
+        byte[] content = TEXT.getBytes(CP1251);
+        Path path = writeCompressed("doc" + CompressedDocument.EXTENSION, content);
+
+        assertEquals(CP1251, TextEncoding.detect(path));
+        try (DocumentFile file = DocumentFile.open(path)) {
+            assertEquals(CP1251, file.charset());
+            assertEquals(content.length, file.size());
+        }
+        try (InputStream in = DocumentFile.newInputStream(path)) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void newInputStreamOfPlainDocumentReadsFile() throws IOException {
+        Path path = root.resolve("plain.txt");
+        Files.write(path, List.of("текст"));
+        try (InputStream in = DocumentFile.newInputStream(path)) {
+            assertArrayEquals(Files.readAllBytes(path), in.readAllBytes());
+        }
+    }
+}
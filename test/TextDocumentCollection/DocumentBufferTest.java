@@ -0,0 +1,32 @@
+package TextDocumentCollection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DocumentBufferTest {
+    @TempDir
+    Path root;
+
+    @Test
+    void saveWritesEditsAndKeepsPermissions() throws IOException {
+        Path path = Files.writeString(root.resolve("doc.txt"), "один два");
+        Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-r--r--"));
+        try (DocumentBuffer buffer = DocumentBuffer.open(path)) {
+            long offset = "один ".getBytes(StandardCharsets.UTF_8).length;
+            long length = "два".getBytes(StandardCharsets.UTF_8).length;
+            buffer.apply(List.of(new DocumentBuffer.Edit(offset, length, "три".getBytes(StandardCharsets.UTF_8))));
+            buffer.save();
+        }
+        assertEquals("один три", Files.readString(path));
+        assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+    }
+}
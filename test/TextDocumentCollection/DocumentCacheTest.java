@@ -0,0 +1,47 @@
+package TextDocumentCollection;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentCacheTest {
+    private static final DocumentMetadata VERSION = new DocumentMetadata(Path.of("a.txt"), 10, 0, 0, null,
+            StandardCharsets.UTF_8);
+
+    private static DocumentCache.Key key(int page) {
+        return DocumentCache.key(VERSION.path(), VERSION, new DocumentCache.Page(page, page + 1));
+    }
+
+    @Test
+    void hitsMissesAndEvictionsAreCounted() {
+        long hits = Metrics.counter("cache_hits", "").getValue();
+        long misses = Metrics.counter("cache_misses", "").getValue();
+        long evictions = Metrics.counter("cache_evictions", "").getValue();
+        DocumentCache cache = new DocumentCache(200);
+
+        cache.get(key(0), () -> "a", v -> 100);
+        cache.get(key(0), () -> "a", v -> 100);
+        cache.get(key(1), () -> "b", v -> 100);
+
+        assertEquals(new DocumentCache.Stats(1, 2, 1, 1, 164, 200), cache.stats());
+        assertEquals(hits + 1, Metrics.counter("cache_hits", "").getValue());
+        assertEquals(misses + 2, Metrics.counter("cache_misses", "").getValue());
+        assertEquals(evictions + 1, Metrics.counter("cache_evictions", "").getValue());
+    }
+
+    // Монотонные показатели экспортируются как счётчики с суффиксом _total, занятый объём - как gauge
+    @Test
+    void cacheMetricsAreExportedAsCounters() {
+        new DocumentCache(1 << 20).get(key(0), () -> "a", v -> 1);
+        Metrics.gauge("cache_bytes", "Занято кэшем документов, байт", () -> 0);
+        String exported = MetricsEndpoint.format();
+        for (String name : new String[]{"cache_hits", "cache_misses", "cache_evictions"}) {
+            assertTrue(exported.contains("# TYPE tdc_" + name + "_total counter\n"), name);
+            assertFalse(exported.contains("# TYPE tdc_" + name + " gauge"), name);
+        }
+        assertTrue(exported.contains("# TYPE tdc_cache_bytes gauge\n"));
+    }
+}
@@ -0,0 +1,63 @@
+package TextDocumentCollection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentStoreTest {
+    @TempDir
+    Path root;
+
+    @Test
+    void readDoesNotWaitForWriter() throws Exception {
+        Path path = Files.writeString(root.resolve("a.txt"), "старый");
+        DocumentStore store = new DocumentStore();
+        store.replaceAll(List.of(DocumentMetadata.read(path)));
+        long before = store.version(path);
+
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        CompletableFuture<Long> writer = CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.write(path, before, () -> {
+                    writing.countDown();
+                    try {
+                        finish.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    Files.writeString(path, "новый текст");
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        DocumentStore.Versioned<String> during = CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.read(path, () -> Files.readString(path));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }).get(10, TimeUnit.SECONDS);
+        assertEquals(new DocumentStore.Versioned<>("старый", before), during);
+
+        finish.countDown();
+        long after = writer.get(10, TimeUnit.SECONDS);
+        assertNotEquals(before, after);
+        assertEquals(new DocumentStore.Versioned<>("новый текст", after), store.read(path, () -> Files.readString(path)));
+        assertThrows(ConcurrentModificationException.class, () -> store.write(path, before, () -> {
+        }));
+    }
+}
@@ -0,0 +1,40 @@
+package TextDocumentCollection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentWatcherTest {
+    @TempDir
+    Path root;
+
+    // Маска с '/' задана относительно корня и должна совпадать и для папок, созданных во время работы
+    @Test
+    void newDirectoryIsScannedRelativeToRoot() throws Exception {
+        Files.createDirectories(root.resolve("docs"));
+        DocumentScanner scanner = new DocumentScanner(DocumentScanner.UNLIMITED_DEPTH, List.of("docs/*/*.txt"));
+        DocumentManager manager = new DocumentManager(root, scanner);
+        try {
+            Path directory = root.resolve("docs/new");
+            Path tmp = Files.createDirectories(root.resolve("staging"));
+            Files.writeString(tmp.resolve("a.txt"), "текст");
+            Files.writeString(tmp.resolve("b.md"), "не документ");
+            // Папка появляется сразу с содержимым - как при перемещении
+            Files.move(tmp, directory);
+
+            Path document = directory.resolve("a.txt");
+            long deadline = System.currentTimeMillis() + 20_000;
+            while (!manager.getDocuments().contains(document) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertEquals(List.of(document), manager.getDocuments());
+        } finally {
+            manager.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package TextDocumentCollection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DuplicateDetectorTest {
+    @TempDir
+    Path root;
+
+    private static String text(int seed, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) sb.append("слово").append((i * 31 + seed) % 997).append(' ');
+        return sb.toString();
+    }
+
+    // Сообщения о повреждённом файле подписей идут в переданный поток, а не в System.out
+    @Test
+    void reportsToInjectedStream() throws Exception {
+        Path a = Files.writeString(root.resolve("a.txt"), text(0, 300));
+        Path b = Files.writeString(root.resolve("b.txt"), text(0, 300) + "хвост");
+        Files.writeString(root.resolve("c.txt"), text(500, 300));
+        Files.writeString(root.resolve(DuplicateDetector.SIGNATURES_FILE), "мусор");
+        List<DocumentMetadata> documents = new ArrayList<>();
+        for (String name : new String[]{"a.txt", "b.txt", "c.txt"}) {
+            documents.add(DocumentMetadata.read(root.resolve(name)));
+        }
+
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        PrintStream previous = System.out;
+        System.setOut(new PrintStream(console, true, StandardCharsets.UTF_8));
+        DuplicateDetector detector;
+        try {
+            detector = DuplicateDetector.open(root, documents, new PrintStream(log, true, StandardCharsets.UTF_8));
+        } finally {
+            System.setOut(previous);
+        }
+
+        assertEquals("", console.toString(StandardCharsets.UTF_8));
+        assertTrue(log.toString(StandardCharsets.UTF_8).startsWith("Файл подписей повреждён"));
+        List<DuplicateDetector.Cluster> clusters = detector.clusters(DuplicateDetector.DEFAULT_THRESHOLD);
+        assertEquals(1, clusters.size());
+        assertEquals(List.of(a, b), clusters.get(0).documents());
+    }
+}
@@ -0,0 +1,22 @@
+package TextDocumentCollection;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Границы le в Prometheus включительные: значение, равное границе, входит в ячейку
+class MetricsEndpointTest {
+    @Test
+    void histogramBucketsAreInclusive() {
+        Metrics.Timer timer = Metrics.timer("test_histogram", "Проверка гистограммы");
+        timer.record(1023);
+        timer.record(1024);
+        timer.record(2047);
+        String exported = MetricsEndpoint.format();
+        assertTrue(exported.contains("tdc_test_histogram_seconds_bucket{le=\"1.02300000e-06\"} 1\n"), exported);
+        assertTrue(exported.contains("tdc_test_histogram_seconds_bucket{le=\"2.04700000e-06\"} 3\n"), exported);
+        assertTrue(exported.contains("tdc_test_histogram_seconds_bucket{le=\"+Inf\"} 3\n"), exported);
+        assertTrue(exported.contains("tdc_test_histogram_seconds_count 3\n"), exported);
+        assertTrue(exported.contains("tdc_test_histogram_seconds_sum 4.09400000e-06\n"), exported);
+    }
+}
@@ -0,0 +1,65 @@
+package TextDocumentCollection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchIndexTest {
+    @TempDir
+    Path root;
+
+    // Термин длиннее 64 КБ в UTF-8 (предел writeUTF) сохраняется и читается обратно без перестроения
+    @Test
+    void longTermsSurviveSaveAndLoad() throws Exception {
+        String longTerm = "я".repeat(40_000);
+        Path path = Files.writeString(root.resolve("a.txt"), "начало " + longTerm + " конец");
+        List<DocumentMetadata> documents = List.of(DocumentMetadata.read(path));
+        SearchIndex.open(root, documents);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream previous = System.out;
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+        SearchIndex loaded;
+        try {
+            loaded = SearchIndex.open(root, documents);
+        } finally {
+            System.setOut(previous);
+        }
+
+        assertEquals("", output.toString(StandardCharsets.UTF_8));
+        assertEquals(1, loaded.documentCount());
+        assertEquals(3, loaded.termCount());
+        assertEquals(path, loaded.search(longTerm).get(0).document());
+        assertEquals(path, loaded.search("конец").get(0).document());
+    }
+
+    // Смещения вхождений - байты самого документа, даже после повреждённой последовательности UTF-8
+    // (она декодируется в U+FFFD, который в UTF-8 занимает три байта)
+    @Test
+    void hitOffsetsFollowDocumentBytes() throws Exception {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        // Повреждение дальше выборки, по которой определяется кодировка
+        content.write("текст ".repeat(TextEncoding.SAMPLE_BYTES).getBytes(StandardCharsets.UTF_8));
+        content.write(new byte[]{(byte) 0xFF, (byte) 0xFE, ' '});
+        int start = content.size();
+        content.write("один два".getBytes(StandardCharsets.UTF_8));
+        int end = content.size();
+        content.write(" три".getBytes(StandardCharsets.UTF_8));
+        Path path = Files.write(root.resolve("b.txt"), content.toByteArray());
+        DocumentMetadata metadata = DocumentMetadata.read(path);
+        assertEquals(StandardCharsets.UTF_8, metadata.charset());
+
+        SearchIndex index = SearchIndex.open(root, List.of(metadata));
+        SearchHit hit = index.search("\"один два\"").get(0).hits().get(0);
+        assertEquals(start, hit.start());
+        assertEquals(end, hit.end());
+    }
+}
@@ -0,0 +1,44 @@
+package TextDocumentCollection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Замена подменяет документ временным файлом - права доступа документа должны сохраниться
+class StreamingReplacerTest {
+    @TempDir
+    Path root;
+
+    private Path document(String text) throws IOException {
+        Path path = Files.writeString(root.resolve("doc.txt"), text);
+        Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-r--r--"));
+        return path;
+    }
+
+    @Test
+    void replaceMatchesKeepsContentAndPermissions() throws IOException {
+        Path path = document("один два один");
+        PatternSearcher searcher = PatternSearcher.compile(List.of("два"), PatternSearcher.Options.DEFAULT);
+        assertEquals(1, new StreamingReplacer().replaceMatches(path, StandardCharsets.UTF_8, searcher, "2"));
+        assertEquals("один 2 один", Files.readString(path));
+        assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+    }
+
+    // Совпадение на границе блока записи и многобайтовая замена
+    @Test
+    void replaceMatchesAcrossChunks() throws IOException {
+        String filler = "x".repeat((1 << 16) - 3);
+        Path path = document(filler + "один два один");
+        PatternSearcher searcher = PatternSearcher.compile(List.of("один"), PatternSearcher.Options.DEFAULT);
+        assertEquals(2, new StreamingReplacer().replaceMatches(path, StandardCharsets.UTF_8, searcher, "три"));
+        assertEquals(filler + "три два три", Files.readString(path));
+    }
+}